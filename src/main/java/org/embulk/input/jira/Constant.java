@@ -2,17 +2,22 @@ package org.embulk.input.jira;
 
 public final class Constant
 {
-    public static final int MAX_RESULTS = 50;
     public static final int MIN_RESULTS = 1;
     public static final int GUESS_RECORDS_COUNT = 50;
+    public static final int GUESS_SAMPLE_CONCURRENCY = 4;
     public static final int PREVIEW_RECORDS_COUNT = 10;
     public static final int GUESS_BUFFER_SIZE = 5 * 1024 * 1024;
     public static final int HTTP_TIMEOUT = 300 * 1000;
+    public static final int IDLE_CONNECTION_TIMEOUT_SEC = 60;
+    public static final int ADAPTIVE_PAGE_LATENCY_MILLIS = 10 * 1000;
+    public static final int ADAPTIVE_PAGE_RESPONSE_SIZE = 16 * 1024 * 1024;
 
     public static final String DEFAULT_TIMESTAMP_PATTERN = "%Y-%m-%dT%H:%M:%S.%L%z";
 
     public static final String CREDENTIAL_URI_PATH = "rest/api/latest/myself";
     public static final String SEARCH_URI_PATH = "rest/api/latest/search";
+    public static final String SEARCH_JQL_URI_PATH = "rest/api/3/search/jql";
+    public static final String APPROXIMATE_COUNT_URI_PATH = "rest/api/3/search/approximate-count";
 
     private Constant(){}
 }
@@ -5,111 +5,219 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
-import org.apache.commons.lang3.StringUtils;
+import org.msgpack.value.Value;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.stream.StreamSupport;
+import java.util.Set;
 
 public class Issue
 {
-    private JsonObject flatten;
+    private static final String[] NO_KEYS = new String[0];
+    private static final List<String> HEURISTIC_KEYS = Arrays.asList("name", "key", "id");
+
+    private volatile JsonObject flatten;
     private final JsonObject json;
+    private final JsonObject fields;
+    private final Value raw;
 
     public Issue(final JsonObject original)
     {
-        this.json = original;
+        this(original, null);
+    }
+
+    /*
+     * An issue kept as the value of the search response, json only holds the values read on the way
+     * */
+    public Issue(final JsonObject json, final Value raw)
+    {
+        this(json, null, raw);
+    }
+
+    private Issue(final JsonObject json, final JsonObject fields, final Value raw)
+    {
+        this.json = json;
+        this.fields = fields;
+        this.raw = raw;
+    }
+
+    /*
+     * An issue as returned by JIRA: the properties of its fields object are values of the issue as if they were merged
+     * into it, a field hiding the property of the issue having the same name. They are looked up in fields, not copied
+     * */
+    public static Issue withFields(final JsonObject json)
+    {
+        final JsonElement fields = json.get("fields");
+        return new Issue(json, fields != null && fields.isJsonObject() ? fields.getAsJsonObject() : null, null);
+    }
+
+    /*
+     * The issue as returned by JIRA, null if the issue was not read in raw mode
+     * */
+    public Value getRaw()
+    {
+        return raw;
     }
 
     public JsonElement getValue(final String path)
     {
-        final List<String> keys = new ArrayList<>(Arrays.asList(path.split("\\.")));
-        return get(json, keys);
+        return getValue(IssuePath.of(path));
     }
 
-    private JsonElement get(final JsonElement json, final List<String> keys)
+    /*
+     * The values of all the paths of the trie, indexed by column index
+     * */
+    public JsonElement[] getValues(final IssuePathTrie paths)
     {
-        if (json == null || json.isJsonNull()) {
-            return JsonNull.INSTANCE;
-        }
-        else if (keys.isEmpty() || (json.isJsonArray() && json.getAsJsonArray().size() == 0)) {
-            return json;
+        return paths.resolve(this);
+    }
+
+    /*
+     * The property of the issue, looked up in fields first
+     * */
+    JsonElement get(final String key)
+    {
+        if (fields != null) {
+            final JsonElement field = fields.get(key);
+            if (field != null) {
+                return field;
+            }
+            if (key.equals("fields")) {
+                return null;
+            }
         }
-        final String key = keys.get(0);
-        keys.remove(0);
-        if (json.isJsonArray()) {
-            final JsonArray arrays = new JsonArray();
-            for (final JsonElement elem : json.getAsJsonArray()) {
-                if (elem.isJsonObject()) {
-                    arrays.add(elem.getAsJsonObject().get(key));
+        return json.get(key);
+    }
+
+    /*
+     * The value at the path, the keys following an array are looked up in each of its objects
+     * */
+    public JsonElement getValue(final IssuePath path)
+    {
+        JsonElement value = json;
+        for (int i = 0; i < path.size(); i++) {
+            if (value == null || value.isJsonNull()) {
+                return JsonNull.INSTANCE;
+            }
+            final String key = path.getKey(i);
+            if (value.isJsonArray()) {
+                final JsonArray elements = value.getAsJsonArray();
+                if (elements.size() == 0) {
+                    return elements;
                 }
-                else {
-                    arrays.add(elem);
+                final JsonArray values = new JsonArray();
+                for (final JsonElement elem : elements) {
+                    values.add(elem.isJsonObject() ? elem.getAsJsonObject().get(key) : elem);
                 }
+                value = values;
             }
-            return get(arrays, keys);
+            else {
+                value = i == 0 ? get(key) : value.getAsJsonObject().get(key);
+            }
+        }
+        return value == null ? JsonNull.INSTANCE : value;
+    }
+
+    /*
+     * The values of the issue by flattened path (i.e fields.status.name), computed once.
+     * The issue is not locked, several threads flattening the same issue compute equal objects and keep one of them
+     * */
+    public JsonObject getFlatten()
+    {
+        JsonObject result = flatten;
+        if (result == null) {
+            result = flatten(entries());
+            flatten = result;
         }
-        return get(json.getAsJsonObject().get(key), keys);
+        return result;
     }
 
-    public synchronized JsonObject getFlatten()
+    /*
+     * Walk the issue depth first with a stack of the objects being flattened instead of recursing.
+     * The objects deeper than two levels are reduced by addHeuristicValue, and the arrays of objects are flattened
+     * as the object of the arrays of their values by key: these arrays are not built, their values are looked up
+     * in the elements of the original array along the path of keys when needed.
+     * */
+    private static JsonObject flatten(final List<Entry<String, JsonElement>> entries)
     {
-        if (flatten == null) {
-            flatten = new JsonObject();
-            manipulatingFlattenJson(json, "");
+        final JsonObject flatten = new JsonObject();
+        final Deque<Frame> frames = new ArrayDeque<>();
+        if (entries.isEmpty()) {
+            flatten.add("", new JsonObject());
+        }
+        else {
+            frames.push(new Frame("", 0, entries.iterator(), null, null, null));
+        }
+        while (!frames.isEmpty()) {
+            final Frame frame = frames.peek();
+            if (frame.entries != null && frame.entries.hasNext()) {
+                final Entry<String, JsonElement> entry = frame.entries.next();
+                visit(entry.getValue(), frame.childPrefix(entry.getKey()), frame.childDepth(entry.getKey()), flatten, frames);
+            }
+            else if (frame.keys != null && frame.keys.hasNext()) {
+                final String key = frame.keys.next();
+                visitArray(frame.array, frame.childPath(key), frame.childPrefix(key), frame.childDepth(key), flatten, frames);
+            }
+            else {
+                frames.pop();
+            }
         }
         return flatten;
     }
 
-    private void manipulatingFlattenJson(final JsonElement in, final String prefix)
+    /*
+     * The properties of the issue in the order they would have once the fields merged into it:
+     * the overridden properties keep their place and the other fields follow
+     * */
+    private List<Entry<String, JsonElement>> entries()
+    {
+        if (fields == null) {
+            return new ArrayList<>(json.entrySet());
+        }
+        final List<Entry<String, JsonElement>> entries = new ArrayList<>(json.size() + fields.size());
+        for (final Entry<String, JsonElement> entry : json.entrySet()) {
+            if (entry.getKey().equals("fields")) {
+                continue;
+            }
+            final JsonElement field = fields.get(entry.getKey());
+            entries.add(field == null ? entry : new SimpleImmutableEntry<>(entry.getKey(), field));
+        }
+        for (final Entry<String, JsonElement> entry : fields.entrySet()) {
+            if (!json.has(entry.getKey()) || entry.getKey().equals("fields")) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /*
+     * depth is the number of dots of the prefix
+     * */
+    private static void visit(final JsonElement in, final String prefix, final int depth, final JsonObject flatten, final Deque<Frame> frames)
     {
         if (in.isJsonObject()) {
             final JsonObject obj = in.getAsJsonObject();
             // NOTE: If you want to flatten JSON completely, please remove this if and addHeuristicValue
-            if (StringUtils.countMatches(prefix, ".") > 1) {
-                addHeuristicValue(obj, prefix);
-                return;
+            if (depth > 1) {
+                addHeuristicValue(obj, prefix, flatten);
             }
-            if (obj.entrySet().isEmpty()) {
+            else if (obj.entrySet().isEmpty()) {
                 flatten.add(prefix, obj);
             }
             else {
-                for (final Entry<String, JsonElement> entry : obj.entrySet()) {
-                    final String key = entry.getKey();
-                    final JsonElement value = entry.getValue();
-                    manipulatingFlattenJson(value, appendPrefix(prefix, key));
-                }
+                frames.push(new Frame(prefix, depth, obj.entrySet().iterator(), null, null, null));
             }
         }
         else if (in.isJsonArray()) {
-            final JsonArray arrayObj = in.getAsJsonArray();
-            final boolean isAllJsonObject = arrayObj.size() > 0 && StreamSupport.stream(arrayObj.spliterator(), false).allMatch(JsonElement::isJsonObject);
-            if (isAllJsonObject) {
-                final Map<String, Integer> occurents = new HashMap<>();
-                for (final JsonElement element : arrayObj) {
-                    final JsonObject obj = element.getAsJsonObject();
-                    for (final Entry<String, JsonElement> entry : obj.entrySet()) {
-                        final String key = entry.getKey();
-                        occurents.merge(key, 1, Integer::sum);
-                    }
-                }
-                final JsonObject newObj = new JsonObject();
-                for (final String key : occurents.keySet()) {
-                    newObj.add(key, new JsonArray());
-                    for (final JsonElement elem : arrayObj) {
-                        newObj.get(key).getAsJsonArray().add(elem.getAsJsonObject().get(key));
-                    }
-                }
-                manipulatingFlattenJson(newObj, prefix);
-            }
-            else {
-                flatten.add(prefix,
-                        new JsonPrimitive("String value"));
-            }
+            visitArray(in.getAsJsonArray(), NO_KEYS, prefix, depth, flatten, frames);
         }
         else if (in.isJsonPrimitive()) {
             flatten.add(prefix, in.getAsJsonPrimitive());
@@ -119,14 +227,69 @@ public class Issue
         }
     }
 
-    private void addHeuristicValue(final JsonObject json, final String prefix)
+    /*
+     * The array of the values found along the path in the elements of the array, the path being empty for the array itself
+     * */
+    private static void visitArray(final JsonArray array, final String[] path, final String prefix, final int depth, final JsonObject flatten,
+            final Deque<Frame> frames)
+    {
+        final int size = array.size();
+        boolean isAllJsonObject = size > 0;
+        for (int i = 0; i < size && isAllJsonObject; i++) {
+            isAllJsonObject = getElement(array, path, i).isJsonObject();
+        }
+        if (!isAllJsonObject) {
+            flatten.add(prefix, new JsonPrimitive("String value"));
+            return;
+        }
+        // Collected with HashMap.merge as before, which orders the keys of a bucket differently than put does,
+        // so the keys are flattened in the same order
+        final Map<String, Integer> occurrences = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            for (final String key : getElement(array, path, i).getAsJsonObject().keySet()) {
+                occurrences.merge(key, 1, Integer::sum);
+            }
+        }
+        final Set<String> keys = occurrences.keySet();
+        if (depth > 1) {
+            addHeuristicValue(array, path, keys, prefix, flatten);
+        }
+        else if (keys.isEmpty()) {
+            flatten.add(prefix, new JsonObject());
+        }
+        else {
+            frames.push(new Frame(prefix, depth, null, keys.iterator(), array, path));
+        }
+    }
+
+    private static JsonElement getElement(final JsonArray array, final String[] path, final int index)
+    {
+        JsonElement element = array.get(index);
+        for (final String key : path) {
+            element = element.getAsJsonObject().get(key);
+            if (element == null) {
+                return JsonNull.INSTANCE;
+            }
+        }
+        return element;
+    }
+
+    private static JsonArray getValues(final JsonArray array, final String[] path, final String key)
+    {
+        final JsonArray values = new JsonArray();
+        for (int i = 0; i < array.size(); i++) {
+            values.add(getElement(array, path, i).getAsJsonObject().get(key));
+        }
+        return values;
+    }
+
+    private static void addHeuristicValue(final JsonObject json, final String prefix, final JsonObject flatten)
     {
-        final List<String> keys = Arrays.asList("name", "key", "id");
         final List<String> heuristic = new ArrayList<>();
         for (final Entry<String, JsonElement> entry : json.entrySet()) {
             final String key = entry.getKey();
             final JsonElement value = entry.getValue();
-            if (keys.contains(key) && !value.isJsonNull()) {
+            if (HEURISTIC_KEYS.contains(key) && !value.isJsonNull()) {
                 heuristic.add(key);
             }
         }
@@ -141,8 +304,76 @@ public class Issue
         }
     }
 
-    private String appendPrefix(final String prefix, final String key)
+    /*
+     * addHeuristicValue of the object of the arrays of values by key of an array of objects, only the arrays added are built
+     * */
+    private static void addHeuristicValue(final JsonArray array, final String[] path, final Set<String> keys, final String prefix, final JsonObject flatten)
+    {
+        boolean hasHeuristic = false;
+        for (final String key : keys) {
+            if (HEURISTIC_KEYS.contains(key)) {
+                flatten.add(appendPrefix(prefix, key), getValues(array, path, key));
+                hasHeuristic = true;
+            }
+        }
+        if (!hasHeuristic) {
+            final JsonObject obj = new JsonObject();
+            for (final String key : keys) {
+                obj.add(key, getValues(array, path, key));
+            }
+            flatten.add(prefix, new JsonPrimitive(obj.toString()));
+        }
+    }
+
+    private static String appendPrefix(final String prefix, final String key)
     {
         return prefix.isEmpty() ? key : prefix + "." + key;
     }
+
+    /*
+     * An object whose entries are being flattened, or an array of objects whose keys are being flattened
+     * */
+    private static final class Frame
+    {
+        private final String prefix;
+        private final int depth;
+        private final Iterator<Entry<String, JsonElement>> entries;
+        private final Iterator<String> keys;
+        private final JsonArray array;
+        private final String[] path;
+
+        private Frame(final String prefix, final int depth, final Iterator<Entry<String, JsonElement>> entries, final Iterator<String> keys,
+                final JsonArray array, final String[] path)
+        {
+            this.prefix = prefix;
+            this.depth = depth;
+            this.entries = entries;
+            this.keys = keys;
+            this.array = array;
+            this.path = path;
+        }
+
+        private String childPrefix(final String key)
+        {
+            return appendPrefix(prefix, key);
+        }
+
+        private int childDepth(final String key)
+        {
+            int dots = prefix.isEmpty() ? 0 : 1;
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) == '.') {
+                    dots++;
+                }
+            }
+            return depth + dots;
+        }
+
+        private String[] childPath(final String key)
+        {
+            final String[] childPath = Arrays.copyOf(path, path.length + 1);
+            childPath[path.length] = key;
+            return childPath;
+        }
+    }
 }
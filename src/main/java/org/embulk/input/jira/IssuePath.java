@@ -0,0 +1,55 @@
+package org.embulk.input.jira;
+
+import org.embulk.spi.Schema;
+
+import java.util.regex.Pattern;
+
+/*
+ * A path to an issue value (i.e status.name) split into its keys once, to be looked up in many issues
+ * */
+public final class IssuePath
+{
+    private static final Pattern SEPARATOR = Pattern.compile("\\.");
+
+    private final String path;
+    private final String[] keys;
+
+    private IssuePath(final String path)
+    {
+        this.path = path;
+        this.keys = SEPARATOR.split(path);
+    }
+
+    public static IssuePath of(final String path)
+    {
+        return new IssuePath(path);
+    }
+
+    /*
+     * The paths of the columns of the schema, indexed by column index
+     * */
+    public static IssuePath[] compile(final Schema schema)
+    {
+        final IssuePath[] paths = new IssuePath[schema.getColumnCount()];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = of(schema.getColumnName(i));
+        }
+        return paths;
+    }
+
+    int size()
+    {
+        return keys.length;
+    }
+
+    String getKey(final int index)
+    {
+        return keys[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        return path;
+    }
+}
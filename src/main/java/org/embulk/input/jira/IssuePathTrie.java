@@ -0,0 +1,176 @@
+package org.embulk.input.jira;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The paths of the columns merged into a tree of their keys, compiled once per schema.
+ * Resolving an issue walks each shared prefix (i.e assignee of assignee.name and assignee.accountId) once
+ * and fans out to the columns, with the same values as Issue.getValue on each path.
+ * The same tree projects the search responses (see SearchResponseReader): only the values the paths go through are read.
+ * */
+public final class IssuePathTrie
+{
+    private final Node root;
+    private final int size;
+
+    private IssuePathTrie(final Node root, final int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    /*
+     * The trie of the paths indexed by column index, as returned by IssuePath.compile,
+     * possibly followed by other paths read from the issues
+     * */
+    public static IssuePathTrie compile(final IssuePath[] paths)
+    {
+        final Builder root = new Builder(null);
+        for (int column = 0; column < paths.length; column++) {
+            Builder node = root;
+            for (int i = 0; i < paths[column].size(); i++) {
+                node = node.child(paths[column].getKey(i));
+            }
+            node.columns.add(column);
+        }
+        return new IssuePathTrie(root.build(), paths.length);
+    }
+
+    /*
+     * The values of the paths in the issue, indexed by column index
+     * */
+    JsonElement[] resolve(final Issue issue)
+    {
+        final JsonElement[] values = new JsonElement[size];
+        for (final Node child : root.children) {
+            resolve(child, issue.get(child.key), values);
+        }
+        return values;
+    }
+
+    /*
+     * The node of the keys of the first segment of the paths, the root has no key
+     * */
+    public Node getRoot()
+    {
+        return root;
+    }
+
+    private static void resolve(final Node node, final JsonElement value, final JsonElement[] values)
+    {
+        if (value == null || value.isJsonNull()) {
+            fill(node, JsonNull.INSTANCE, values);
+            return;
+        }
+        if (value.isJsonArray() && value.getAsJsonArray().size() == 0) {
+            // An empty array is the value of all the paths going through it
+            fill(node, value, values);
+            return;
+        }
+        for (final int column : node.columns) {
+            values[column] = value;
+        }
+        for (final Node child : node.children) {
+            resolve(child, get(value, child.key), values);
+        }
+    }
+
+    /*
+     * The value under the key, the key being looked up in each object of an array
+     * */
+    private static JsonElement get(final JsonElement value, final String key)
+    {
+        if (!value.isJsonArray()) {
+            return value.getAsJsonObject().get(key);
+        }
+        final JsonArray values = new JsonArray();
+        for (final JsonElement elem : value.getAsJsonArray()) {
+            values.add(elem.isJsonObject() ? elem.getAsJsonObject().get(key) : elem);
+        }
+        return values;
+    }
+
+    private static void fill(final Node node, final JsonElement value, final JsonElement[] values)
+    {
+        for (final int column : node.columns) {
+            values[column] = value;
+        }
+        for (final Node child : node.children) {
+            fill(child, value, values);
+        }
+    }
+
+    public static final class Node
+    {
+        private final String key;
+        private final int[] columns;
+        private final Node[] children;
+        private final Map<String, Node> childrenByKey = new HashMap<>();
+
+        private Node(final String key, final int[] columns, final Node[] children)
+        {
+            this.key = key;
+            this.columns = columns;
+            this.children = children;
+            for (final Node child : children) {
+                childrenByKey.put(child.key, child);
+            }
+        }
+
+        /*
+         * The node of the value under the key, null if no path goes through it
+         * */
+        public Node get(final String childKey)
+        {
+            return childrenByKey.get(childKey);
+        }
+
+        /*
+         * Whether a path ends here, the whole value is then needed
+         * */
+        public boolean isTerminal()
+        {
+            return columns.length > 0;
+        }
+    }
+
+    private static final class Builder
+    {
+        private final String key;
+        private final List<Integer> columns = new ArrayList<>();
+        private final List<Builder> children = new ArrayList<>();
+
+        private Builder(final String key)
+        {
+            this.key = key;
+        }
+
+        private Builder child(final String childKey)
+        {
+            for (final Builder child : children) {
+                if (child.key.equals(childKey)) {
+                    return child;
+                }
+            }
+            final Builder child = new Builder(childKey);
+            children.add(child);
+            return child;
+        }
+
+        private Node build()
+        {
+            final Node[] nodes = new Node[children.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = children.get(i).build();
+            }
+            return new Node(key, columns.stream().mapToInt(Integer::intValue).toArray(), nodes);
+        }
+    }
+}
@@ -7,10 +7,20 @@ import com.google.gson.JsonObject;
 import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
+import org.embulk.config.DataSource;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
 import org.embulk.input.jira.client.JiraClient;
+import org.embulk.input.jira.client.OffsetPagination;
+import org.embulk.input.jira.client.PageFetcher;
+import org.embulk.input.jira.client.PageSize;
+import org.embulk.input.jira.client.Pagination;
+import org.embulk.input.jira.client.SearchResponseReader;
+import org.embulk.input.jira.client.TokenPagination;
+import org.embulk.input.jira.util.CoercionFailures;
 import org.embulk.input.jira.util.JiraUtil;
+import org.embulk.input.jira.util.PageWriter;
+import org.embulk.input.jira.util.RecordWriter;
 import org.embulk.spi.Exec;
 import org.embulk.spi.InputPlugin;
 import org.embulk.spi.PageBuilder;
@@ -28,23 +38,33 @@ import org.embulk.util.guess.SchemaGuess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 
 import static org.embulk.input.jira.Constant.GUESS_RECORDS_COUNT;
-import static org.embulk.input.jira.Constant.MAX_RESULTS;
+import static org.embulk.input.jira.Constant.GUESS_SAMPLE_CONCURRENCY;
 import static org.embulk.input.jira.Constant.PREVIEW_RECORDS_COUNT;
 
 public class JiraInputPlugin
         implements InputPlugin
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(JiraInputPlugin.class);
+    private static final IssuePath UPDATED_PATH = IssuePath.of("updated");
     @VisibleForTesting
     public static final ConfigMapperFactory CONFIG_MAPPER_FACTORY = ConfigMapperFactory
             .builder()
@@ -86,17 +106,112 @@ public class JiraInputPlugin
         @ConfigDefault("null")
         public Optional<String> getJQL();
 
+        public void setJQL(Optional<String> jql);
+
         @Config("dynamic_schema")
         @ConfigDefault("false")
         public boolean getDynamicSchema();
 
+        @Config("guess_sample_pages")
+        @ConfigDefault("0")
+        public int getGuessSamplePages();
+
         @Config("columns")
+        @ConfigDefault("[]")
         public SchemaConfig getColumns();
 
+        @Config("output_mode")
+        @ConfigDefault("\"columns\"")
+        public OutputMode getOutputMode();
+
+        @Config("raw_metadata")
+        @ConfigDefault("true")
+        public boolean getRawMetadata();
+
+        @Config("max_connections")
+        @ConfigDefault("50")
+        public int getMaxConnections();
+
+        @Config("max_connections_per_route")
+        @ConfigDefault("20")
+        public int getMaxConnectionsPerRoute();
+
+        @Config("task_count")
+        @ConfigDefault("1")
+        public int getTaskCount();
+
+        @Config("partition_method")
+        @ConfigDefault("\"offset\"")
+        public PartitionMethod getPartitionMethod();
+
+        @Config("partition_window_hours")
+        @ConfigDefault("24")
+        public int getPartitionWindowHours();
+
+        @Config("partition_max_issues")
+        @ConfigDefault("null")
+        public Optional<Integer> getPartitionMaxIssues();
+
+        @Config("prefetch_pages")
+        @ConfigDefault("1")
+        public int getPrefetchPages();
+
+        @Config("fetch_concurrency")
+        @ConfigDefault("1")
+        public int getFetchConcurrency();
+
+        @Config("preserve_order")
+        @ConfigDefault("true")
+        public boolean getPreserveOrder();
+
+        @Config("conversion_threads")
+        @ConfigDefault("1")
+        public int getConversionThreads();
+
+        @Config("pagination_method")
+        @ConfigDefault("\"offset\"")
+        public PaginationMethod getPaginationMethod();
+
+        @Config("page_size")
+        @ConfigDefault("50")
+        public int getPageSize();
+
+        @Config("adaptive_page_size")
+        @ConfigDefault("false")
+        public boolean getAdaptivePageSize();
+
+        @Config("max_page_size")
+        @ConfigDefault("1000")
+        public int getMaxPageSize();
+
+        @Config("incremental")
+        @ConfigDefault("false")
+        public boolean getIncremental();
+
+        @Config("last_updated")
+        @ConfigDefault("null")
+        public Optional<String> getLastUpdated();
+
+        @Config("incremental_overlap_minutes")
+        @ConfigDefault("1")
+        public int getIncrementalOverlapMinutes();
+
         // For future support of other authentication methods
         @Config("auth_method")
         @ConfigDefault("\"basic\"")
         public AuthenticateMethod getAuthMethod();
+
+        @Config("fetch_all_fields")
+        @ConfigDefault("false")
+        public boolean getFetchAllFields();
+
+        public List<Partition> getPartitions();
+
+        public void setPartitions(List<Partition> partitions);
+
+        public List<String> getFields();
+
+        public void setFields(List<String> fields);
     }
 
     @Override
@@ -104,27 +219,47 @@ public class JiraInputPlugin
             final InputPlugin.Control control)
     {
         final PluginTask task = CONFIG_MAPPER.map(config, PluginTask.class);
-        SchemaConfig schemaConfig = task.getColumns();
-        if (task.getDynamicSchema()) {
-            final JiraClient jiraClient = getJiraClient();
-            final List<ColumnConfig> columns = new ArrayList<>();
-            try {
-                final List<ConfigDiff> guessedColumns = getGuessedColumns(jiraClient, task);
-                for (final ConfigDiff guessedColumn : guessedColumns) {
-                    columns.add(new ColumnConfig(CONFIG_MAPPER_FACTORY.newConfigSource().merge(guessedColumn)));
-                }
+        final Schema schema;
+        final List<Partition> partitions;
+        try (final JiraClient jiraClient = getJiraClient()) {
+            // The partitions are created from the settings, so they are checked before any of them is used
+            JiraUtil.validateTaskConfig(task, jiraClient);
+            // Optional for raw mode only, guess resets the columns so it is not checked with the other settings
+            if (task.getOutputMode() == OutputMode.COLUMNS && !task.getDynamicSchema() && task.getColumns().size() == 0) {
+                throw new ConfigException("Columns could not be empty unless output_mode is raw or dynamic_schema is true");
+            }
+            if (task.getIncremental() && task.getLastUpdated().isPresent()) {
+                applyIncrementalFilter(jiraClient, task);
             }
-            catch (final ConfigException e) {
-                if (!e.getMessage().equals("Could not guess schema due to empty data set")) {
-                    throw e;
+            SchemaConfig schemaConfig = task.getColumns();
+            if (task.getDynamicSchema() && task.getOutputMode() == OutputMode.COLUMNS) {
+                final List<ColumnConfig> columns = new ArrayList<>();
+                try {
+                    final List<ConfigDiff> guessedColumns = getGuessedColumns(jiraClient, task);
+                    for (final ConfigDiff guessedColumn : guessedColumns) {
+                        columns.add(new ColumnConfig(CONFIG_MAPPER_FACTORY.newConfigSource().merge(guessedColumn)));
+                    }
                 }
+                catch (final ConfigException e) {
+                    if (!e.getMessage().equals("Could not guess schema due to empty data set")) {
+                        throw e;
+                    }
+                }
+                schemaConfig = new SchemaConfig(columns);
+            }
+            if (task.getOutputMode() == OutputMode.RAW) {
+                // All the fields are landed as they are
+                schema = JiraUtil.createRawSchema(task.getRawMetadata());
+            }
+            else {
+                schema = schemaConfig.toSchema();
+                task.setFields(getRequestedFields(task, schema));
             }
-            schemaConfig = new SchemaConfig(columns);
+            partitions = createPartitions(jiraClient, task);
         }
-        final Schema schema = schemaConfig.toSchema();
-        final int taskCount = 1;
+        task.setPartitions(partitions);
 
-        return resume(task.toTaskSource(), schema, taskCount, control);
+        return resume(task.toTaskSource(), schema, partitions.size(), control);
     }
 
     @Override
@@ -132,8 +267,44 @@ public class JiraInputPlugin
             final Schema schema, final int taskCount,
             final InputPlugin.Control control)
     {
-        control.run(taskSource, schema, taskCount);
-        return CONFIG_MAPPER_FACTORY.newConfigDiff();
+        // The partitions are fixed in the task source, so when Embulk resumes a failed transaction
+        // only the tasks without a committed report are run again, on the same slices of issues
+        final List<TaskReport> taskReports = control.run(taskSource, schema, taskCount);
+        final ConfigDiff configDiff = CONFIG_MAPPER_FACTORY.newConfigDiff();
+        final PluginTask task = TASK_MAPPER.map(taskSource, PluginTask.class);
+        long records = 0;
+        for (final TaskReport taskReport : taskReports) {
+            if (taskReport.has("records")) {
+                records += taskReport.get(Long.class, "records");
+            }
+        }
+        LOGGER.info(String.format("Loaded %d issues in %d tasks", records, taskCount));
+        final Map<String, Long> coercionFailures = new LinkedHashMap<>();
+        for (final TaskReport taskReport : taskReports) {
+            if (taskReport.has("coercion_failures")) {
+                final DataSource failures = taskReport.getNested("coercion_failures");
+                for (final String column : failures.getAttributeNames()) {
+                    coercionFailures.merge(column, failures.get(Long.class, column), Long::sum);
+                }
+            }
+        }
+        if (!coercionFailures.isEmpty()) {
+            LOGGER.warn(String.format("Values set to null as they do not match the column type %s", coercionFailures));
+        }
+        if (task.getIncremental()) {
+            // Keep the previous watermark when no issue is loaded
+            Optional<Instant> lastUpdated = task.getLastUpdated().map(JiraUtil::parseJiraTimestamp);
+            for (final TaskReport taskReport : taskReports) {
+                if (taskReport.has("max_updated")) {
+                    final Instant maxUpdated = JiraUtil.parseJiraTimestamp(taskReport.get(String.class, "max_updated"));
+                    if (!lastUpdated.isPresent() || maxUpdated.isAfter(lastUpdated.get())) {
+                        lastUpdated = Optional.of(maxUpdated);
+                    }
+                }
+            }
+            lastUpdated.ifPresent(value -> configDiff.set("last_updated", JiraUtil.formatJiraTimestamp(value)));
+        }
+        return configDiff;
     }
 
     @Override
@@ -142,29 +313,64 @@ public class JiraInputPlugin
             final PageOutput output)
     {
         final PluginTask task = TASK_MAPPER.map(taskSource, PluginTask.class);
-        JiraUtil.validateTaskConfig(task);
-        final JiraClient jiraClient = getJiraClient();
-        jiraClient.checkUserCredentials(task);
-        try (final PageBuilder pageBuilder = getPageBuilder(schema, output)) {
-            if (isPreview()) {
-                final List<Issue> issues = jiraClient.searchIssues(task, 0, PREVIEW_RECORDS_COUNT);
-                issues.forEach(issue -> JiraUtil.addRecord(issue, schema, task, pageBuilder));
-            }
-            else {
-                int currentPage = 0;
-                final int totalCount = jiraClient.getTotalCount(task);
-                final int totalPage = JiraUtil.calculateTotalPage(totalCount, MAX_RESULTS);
-                LOGGER.info(String.format("Total pages (%d)", totalPage));
-                while (currentPage < totalPage) {
-                    LOGGER.info(String.format("Fetching page %d/%d", (currentPage + 1), totalPage));
-                    final List<Issue> issues = jiraClient.searchIssues(task, (currentPage * MAX_RESULTS), MAX_RESULTS);
-                    issues.forEach(issue -> JiraUtil.addRecord(issue, schema, task, pageBuilder));
-                    currentPage++;
+        final Partition partition = isPreview() ? Partition.all() : getPartition(task, taskIndex);
+        final CoercionFailures coercionFailures = new CoercionFailures(schema);
+        // One trie for the values projected from the responses and the values written to the columns
+        final IssuePathTrie paths = IssuePathTrie.compile(getIssuePaths(task, schema));
+        final RecordWriter recordWriter = task.getOutputMode() == OutputMode.RAW
+                ? RecordWriter.compileRaw(schema, coercionFailures)
+                : RecordWriter.compile(task, schema, paths, coercionFailures);
+        long records = 0;
+        Instant maxUpdated = null;
+        try (final JiraClient jiraClient = getJiraClient()) {
+            JiraUtil.validateTaskConfig(task, jiraClient);
+            jiraClient.checkUserCredentials(task);
+            try (final PageBuilder pageBuilder = getPageBuilder(schema, output);
+                    final PageWriter pageWriter = new PageWriter(recordWriter, task.getConversionThreads())) {
+                if (isPreview()) {
+                    final List<Issue> issues = jiraClient.searchIssues(task, 0, PREVIEW_RECORDS_COUNT);
+                    pageWriter.write(issues, pageBuilder);
+                    records = issues.size();
+                }
+                else {
+                    final String jql = JiraUtil.appendJqlFilter(task.getJQL().orElse(""), partition.getFilter());
+                    LOGGER.info(String.format("Task %d: loading %s", taskIndex, partition));
+                    final PageSize pageSize = new PageSize(task.getPageSize(), task.getMaxPageSize(), task.getAdaptivePageSize());
+                    final Pagination requests = createPagination(jiraClient, task, paths, jql, partition, pageSize);
+                    try (final PageFetcher fetcher = new PageFetcher(requests, task.getPrefetchPages(), task.getFetchConcurrency(), task.getPreserveOrder())) {
+                        while (fetcher.hasNext()) {
+                            final List<Issue> issues = fetcher.next();
+                            pageWriter.write(issues, pageBuilder);
+                            records += issues.size();
+                            if (task.getIncremental()) {
+                                for (final Issue issue : issues) {
+                                    maxUpdated = JiraUtil.maxInstant(maxUpdated, issue.getValue(UPDATED_PATH));
+                                }
+                            }
+                        }
+                    }
                 }
+                pageBuilder.finish();
             }
-            pageBuilder.finish();
         }
-        return CONFIG_MAPPER_FACTORY.newTaskReport();
+        // The report of a committed task is kept by Embulk, so a resumed run skips the partitions recorded here
+        final TaskReport taskReport = CONFIG_MAPPER_FACTORY.newTaskReport()
+                .set("start_at", partition.getStartAt())
+                .set("end_at", partition.getEndAt())
+                .set("records", records);
+        if (partition.getFilter() != null) {
+            taskReport.set("filter", partition.getFilter());
+        }
+        LOGGER.info(String.format("Task %d: loaded %d issues of %s", taskIndex, records, partition));
+        if (maxUpdated != null) {
+            taskReport.set("max_updated", JiraUtil.formatJiraTimestamp(maxUpdated));
+        }
+        final Map<String, Long> failures = coercionFailures.toMap();
+        if (!failures.isEmpty()) {
+            LOGGER.warn(String.format("Task %d: values set to null as they do not match the column type %s", taskIndex, failures));
+            taskReport.set("coercion_failures", failures);
+        }
+        return taskReport;
     }
 
     @Override
@@ -173,23 +379,139 @@ public class JiraInputPlugin
         // Reset columns in case already have or missing on configuration
         config.set("columns", new ArrayList<>());
         final PluginTask task = CONFIG_MAPPER.map(config, PluginTask.class);
-        JiraUtil.validateTaskConfig(task);
-        final JiraClient jiraClient = getJiraClient();
-        jiraClient.checkUserCredentials(task);
-        return CONFIG_MAPPER_FACTORY.newConfigDiff().set("columns", getGuessedColumns(jiraClient, task));
+        try (final JiraClient jiraClient = getJiraClient()) {
+            JiraUtil.validateTaskConfig(task, jiraClient);
+            jiraClient.checkUserCredentials(task);
+            return CONFIG_MAPPER_FACTORY.newConfigDiff().set("columns", getGuessedColumns(jiraClient, task));
+        }
+    }
+
+    /*
+     * Narrow the JQL to the issues updated since the last run, minus the overlap for the updates committed late
+     * */
+    private void applyIncrementalFilter(final JiraClient jiraClient, final PluginTask task)
+    {
+        final Instant lastUpdated = JiraUtil.parseJiraTimestamp(task.getLastUpdated().get());
+        if (lastUpdated == null) {
+            throw new ConfigException(String.format("Last updated '%s' is not a valid timestamp", task.getLastUpdated().get()));
+        }
+        final Instant since = lastUpdated.minus(Duration.ofMinutes(task.getIncrementalOverlapMinutes()));
+        final ZoneId zone = jiraClient.getUserTimeZone(task);
+        final String jql = JiraUtil.appendJqlFilter(task.getJQL().orElse(""), JiraUtil.buildTimeWindowFilter("updated", since, null, zone));
+        LOGGER.info(String.format("Load the issues updated since %s: %s", since, jql));
+        task.setJQL(Optional.of(jql));
+    }
+
+    private List<String> getRequestedFields(final PluginTask task, final Schema schema)
+    {
+        final List<String> extraFields = new ArrayList<>();
+        if (task.getIncremental()) {
+            extraFields.add("updated");
+        }
+        if (task.getPartitionMethod() == PartitionMethod.UPDATED || task.getPartitionMethod() == PartitionMethod.CREATED) {
+            extraFields.add(task.getPartitionMethod().toString());
+        }
+        return JiraUtil.getRequestedFields(schema, extraFields);
+    }
+
+    private List<Partition> createPartitions(final JiraClient jiraClient, final PluginTask task)
+    {
+        if (isPreview()) {
+            return Collections.singletonList(Partition.all());
+        }
+        return new Partitioner(jiraClient, task).createPartitions();
+    }
+
+    private Pagination createPagination(final JiraClient jiraClient, final PluginTask task, final IssuePathTrie paths, final String jql, final Partition partition,
+            final PageSize pageSize)
+    {
+        final SearchResponseReader responseReader = createSearchResponseReader(task, paths);
+        if (task.getPaginationMethod() == PaginationMethod.TOKEN) {
+            // Token partitions are filtered only, see JiraUtil.validateTaskConfig
+            return new TokenPagination(jiraClient, task, jql, pageSize, responseReader);
+        }
+        return new OffsetPagination(jiraClient, task, jql, partition.getStartAt(), partition.getEndAt(), pageSize, responseReader);
+    }
+
+    /*
+     * Only the values of the paths are read from the pages, the whole issues are kept in raw mode
+     * */
+    private SearchResponseReader createSearchResponseReader(final PluginTask task, final IssuePathTrie paths)
+    {
+        if (task.getOutputMode() == OutputMode.RAW) {
+            return new SearchResponseReader(true);
+        }
+        return new SearchResponseReader(false, paths);
+    }
+
+    /*
+     * The paths of the columns indexed by column index, followed by the updated time for incremental loading
+     * */
+    private IssuePath[] getIssuePaths(final PluginTask task, final Schema schema)
+    {
+        final IssuePath[] columnPaths = IssuePath.compile(schema);
+        if (!task.getIncremental()) {
+            return columnPaths;
+        }
+        final IssuePath[] paths = Arrays.copyOf(columnPaths, columnPaths.length + 1);
+        paths[columnPaths.length] = UPDATED_PATH;
+        return paths;
+    }
+
+    private Partition getPartition(final PluginTask task, final int taskIndex)
+    {
+        final List<Partition> partitions = task.getPartitions();
+        // Task sources created before partitioning existed have no partitions
+        if (partitions == null || partitions.isEmpty()) {
+            return Partition.all();
+        }
+        return partitions.get(taskIndex);
     }
 
     private List<ConfigDiff> getGuessedColumns(final JiraClient jiraClient, final PluginTask task)
     {
-        final List<Issue> issues = jiraClient.searchIssues(task, 0, GUESS_RECORDS_COUNT);
+        final List<Issue> issues = task.getGuessSamplePages() > 0
+                ? sampleIssues(jiraClient, task)
+                : jiraClient.searchIssues(task, 0, GUESS_RECORDS_COUNT);
         if (issues.isEmpty()) {
             throw new ConfigException("Could not guess schema due to empty data set");
         }
+        // Flatten the issues on all the cores, the flattened issues are kept for the sampling below
+        issues.parallelStream().forEach(Issue::getFlatten);
         final List<ConfigDiff> columns = SchemaGuess.of(CONFIG_MAPPER_FACTORY).fromLinkedHashMapRecords(createGuessSample(issues, getUniqueAttributes(issues)));
         columns.forEach(conf -> conf.remove("index"));
         return columns;
     }
 
+    /*
+     * The first GUESS_RECORDS_COUNT issues of guess_sample_pages ranges of issue ids picked at random, out of one range
+     * per page of GUESS_RECORDS_COUNT issues, so the fields only set on older issues are guessed too.
+     * The ranges are searched from their first issue, which the offset and the enhanced JQL search both serve.
+     * The range of the lowest ids is always sampled
+     * */
+    private List<Issue> sampleIssues(final JiraClient jiraClient, final PluginTask task)
+    {
+        final String jql = task.getJQL().orElse("");
+        final int totalCount = jiraClient.getTotalCount(task);
+        final List<Partition> ranges = new Partitioner(jiraClient, task).createIdPartitions(JiraUtil.calculateTotalPage(totalCount, GUESS_RECORDS_COUNT));
+        final List<Integer> samples = JiraUtil.selectSamplePages(ranges.size(), task.getGuessSamplePages(), new Random());
+        if (samples.size() <= 1) {
+            return jiraClient.searchIssues(task, 0, GUESS_RECORDS_COUNT);
+        }
+        LOGGER.info(String.format("Guess the schema from %d ranges of issue ids out of %d, about %d issues", samples.size(), ranges.size(), totalCount));
+        final Iterator<Callable<List<Issue>>> requests = samples.stream()
+                .map(sample -> JiraUtil.appendJqlFilter(jql, ranges.get(sample).getFilter()))
+                .map(rangeJql -> (Callable<List<Issue>>) () -> jiraClient.searchIssues(task, rangeJql, 0, GUESS_RECORDS_COUNT))
+                .iterator();
+        final List<Issue> issues = new ArrayList<>();
+        try (final PageFetcher fetcher = new PageFetcher(requests, 0, Math.min(samples.size(), GUESS_SAMPLE_CONCURRENCY), true)) {
+            while (fetcher.hasNext()) {
+                issues.addAll(fetcher.next());
+            }
+        }
+        return issues;
+    }
+
     private SortedSet<String> getUniqueAttributes(final List<Issue> issues)
     {
         final SortedSet<String> uniqueAttributes = new TreeSet<>();
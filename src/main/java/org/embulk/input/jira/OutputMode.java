@@ -0,0 +1,30 @@
+package org.embulk.input.jira;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import org.embulk.config.ConfigException;
+
+public enum OutputMode {
+    COLUMNS,
+    RAW;
+    @JsonValue
+    @Override
+    public String toString()
+    {
+        return this.name().toLowerCase();
+    }
+
+    @JsonCreator
+    public static OutputMode fromString(String value)
+    {
+        switch(value) {
+        case "columns":
+            return COLUMNS;
+        case "raw":
+            return RAW;
+        default:
+            throw new ConfigException(String.format("Unknown OutputMode value '%s'. Supported values are columns, raw.", value));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.embulk.input.jira;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import org.embulk.config.ConfigException;
+
+public enum PaginationMethod {
+    OFFSET,
+    TOKEN;
+    @JsonValue
+    @Override
+    public String toString()
+    {
+        return this.name().toLowerCase();
+    }
+
+    @JsonCreator
+    public static PaginationMethod fromString(String value)
+    {
+        switch(value) {
+        case "offset":
+            return OFFSET;
+        case "token":
+            return TOKEN;
+        default:
+            throw new ConfigException(String.format("Unknown PaginationMethod value '%s'. Supported values are offset, token.", value));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.embulk.input.jira;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/*
+ * A slice of the search result set handled by one Embulk task.
+ * The filter is an extra JQL condition narrowing the configured JQL, null means no extra condition.
+ * Within the filtered result set, the slice covers the issues from startAt (inclusive) to endAt (exclusive),
+ * a negative endAt means reading until the end of the result set.
+ * */
+public class Partition
+{
+    private final String filter;
+    private final int startAt;
+    private final int endAt;
+
+    @JsonCreator
+    public Partition(@JsonProperty("filter") final String filter,
+            @JsonProperty("start_at") final int startAt,
+            @JsonProperty("end_at") final int endAt)
+    {
+        this.filter = filter;
+        this.startAt = startAt;
+        this.endAt = endAt;
+    }
+
+    public Partition(final int startAt, final int endAt)
+    {
+        this(null, startAt, endAt);
+    }
+
+    public static Partition all()
+    {
+        return new Partition(0, -1);
+    }
+
+    public static Partition filtered(final String filter)
+    {
+        return new Partition(filter, 0, -1);
+    }
+
+    @JsonProperty("filter")
+    public String getFilter()
+    {
+        return filter;
+    }
+
+    @JsonProperty("start_at")
+    public int getStartAt()
+    {
+        return startAt;
+    }
+
+    @JsonProperty("end_at")
+    public int getEndAt()
+    {
+        return endAt;
+    }
+
+    @JsonIgnore
+    public boolean isBounded()
+    {
+        return endAt >= 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("Partition[filter=%s, startAt=%d, endAt=%s]", filter, startAt, isBounded() ? Integer.toString(endAt) : "end");
+    }
+}
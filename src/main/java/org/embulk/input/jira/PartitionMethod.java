@@ -0,0 +1,36 @@
+package org.embulk.input.jira;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import org.embulk.config.ConfigException;
+
+public enum PartitionMethod {
+    OFFSET,
+    ID,
+    UPDATED,
+    CREATED;
+    @JsonValue
+    @Override
+    public String toString()
+    {
+        return this.name().toLowerCase();
+    }
+
+    @JsonCreator
+    public static PartitionMethod fromString(String value)
+    {
+        switch(value) {
+        case "offset":
+            return OFFSET;
+        case "id":
+            return ID;
+        case "updated":
+            return UPDATED;
+        case "created":
+            return CREATED;
+        default:
+            throw new ConfigException(String.format("Unknown PartitionMethod value '%s'. Supported values are offset, id, updated, created.", value));
+        }
+    }
+}
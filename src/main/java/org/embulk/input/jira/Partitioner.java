@@ -0,0 +1,148 @@
+package org.embulk.input.jira;
+
+import com.google.gson.JsonElement;
+import org.embulk.config.ConfigException;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.input.jira.client.JiraClient;
+import org.embulk.input.jira.util.JiraUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.embulk.input.jira.Constant.MIN_RESULTS;
+
+/*
+ * Split the configured JQL into the partitions loaded by the Embulk tasks
+ * */
+public class Partitioner
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(Partitioner.class);
+
+    private final JiraClient jiraClient;
+    private final PluginTask task;
+    private final String jql;
+
+    public Partitioner(final JiraClient jiraClient, final PluginTask task)
+    {
+        this.jiraClient = jiraClient;
+        this.task = task;
+        this.jql = task.getJQL().orElse("");
+    }
+
+    public List<Partition> createPartitions()
+    {
+        switch (task.getPartitionMethod()) {
+        case UPDATED:
+        case CREATED:
+            return createTimePartitions(task.getPartitionMethod().toString());
+        case ID:
+            return createIdPartitions(task.getTaskCount());
+        default:
+            return task.getTaskCount() <= 1 ? Collections.singletonList(Partition.all()) : createOffsetPartitions();
+        }
+    }
+
+    private List<Partition> createOffsetPartitions()
+    {
+        final int totalCount = jiraClient.getTotalCount(task);
+        final List<Partition> partitions = JiraUtil.createOffsetPartitions(totalCount, task.getTaskCount(), task.getPageSize());
+        LOGGER.info(String.format("Split %d issues into %d tasks", totalCount, partitions.size()));
+        return partitions;
+    }
+
+    /*
+     * At most count ranges of issue ids of the same width, from the lowest id to the highest one.
+     * The ranges are filters, so they are searched from their first issue on both the offset and the enhanced JQL search
+     * */
+    public List<Partition> createIdPartitions(final int count)
+    {
+        if (count <= 1) {
+            return Collections.singletonList(Partition.all());
+        }
+        final Optional<JsonElement> minId = findFirstValue("id", "ASC");
+        final Optional<JsonElement> maxId = findFirstValue("id", "DESC");
+        if (!minId.isPresent() || !maxId.isPresent()) {
+            return Collections.singletonList(Partition.all());
+        }
+        final List<Partition> partitions = JiraUtil.createIdPartitions(minId.get().getAsLong(), maxId.get().getAsLong(), count);
+        LOGGER.info(String.format("Split issue ids from %s to %s into %d ranges", minId.get().getAsString(), maxId.get().getAsString(), partitions.size()));
+        return partitions;
+    }
+
+    /*
+     * One partition per time window of the field, the windows having more than partition_max_issues issues are halved
+     * until they fit or cannot be split anymore (JQL dates have minute precision)
+     * */
+    private List<Partition> createTimePartitions(final String field)
+    {
+        // A window not moving the bounds forward would never reach the last issue
+        final Duration window = Duration.ofHours(task.getPartitionWindowHours());
+        if (window.isZero() || window.isNegative()) {
+            throw new ConfigException("Partition window hours should be equal or greater than 1");
+        }
+        final Optional<Instant> first = findFirstValue(field, "ASC").map(value -> JiraUtil.parseJiraTimestamp(value.getAsString()));
+        final Optional<Instant> last = findFirstValue(field, "DESC").map(value -> JiraUtil.parseJiraTimestamp(value.getAsString()));
+        if (!first.isPresent() || !last.isPresent()) {
+            return Collections.singletonList(Partition.all());
+        }
+        final ZoneId zone = jiraClient.getUserTimeZone(task);
+        final ChronoUnit truncateUnit = window.toHours() % 24 == 0 ? ChronoUnit.DAYS : ChronoUnit.HOURS;
+        final List<Instant> bounds = new ArrayList<>();
+        Instant bound = first.get().atZone(zone).truncatedTo(truncateUnit).toInstant();
+        bounds.add(bound);
+        do {
+            bound = bound.plus(window);
+            if (task.getPartitionMaxIssues().isPresent()) {
+                splitTimeWindow(field, zone, bounds.get(bounds.size() - 1), bound, task.getPartitionMaxIssues().get(), bounds);
+            }
+            bounds.add(bound);
+        } while (!bound.isAfter(last.get()));
+
+        // The first and last windows are open-ended so the issues moving outside the observed range are not lost
+        final List<Partition> partitions = new ArrayList<>();
+        for (int i = 1; i < bounds.size(); i++) {
+            final Instant from = i == 1 ? null : bounds.get(i - 1);
+            final Instant to = i == bounds.size() - 1 ? null : bounds.get(i);
+            partitions.add(from == null && to == null ? Partition.all() : Partition.filtered(JiraUtil.buildTimeWindowFilter(field, from, to, zone)));
+        }
+        LOGGER.info(String.format("Split %s from %s to %s into %d tasks", field, first.get(), last.get(), partitions.size()));
+        return partitions;
+    }
+
+    /*
+     * Add the bounds splitting [from, to) into windows having at most maxIssues issues, excluding from and to
+     * */
+    private void splitTimeWindow(final String field, final ZoneId zone, final Instant from, final Instant to, final int maxIssues, final List<Instant> bounds)
+    {
+        final long minutes = Duration.between(from, to).toMinutes();
+        if (minutes < 2) {
+            return;
+        }
+        final int count = jiraClient.getTotalCount(task, JiraUtil.appendJqlFilter(jql, JiraUtil.buildTimeWindowFilter(field, from, to, zone)));
+        if (count <= maxIssues) {
+            return;
+        }
+        final Instant middle = from.plus(Duration.ofMinutes(minutes / 2));
+        splitTimeWindow(field, zone, from, middle, maxIssues, bounds);
+        bounds.add(middle);
+        splitTimeWindow(field, zone, middle, to, maxIssues, bounds);
+    }
+
+    private Optional<JsonElement> findFirstValue(final String field, final String direction)
+    {
+        final List<Issue> issues = jiraClient.searchIssues(task, JiraUtil.orderJql(jql, field + " " + direction), 0, MIN_RESULTS);
+        if (issues.isEmpty()) {
+            return Optional.empty();
+        }
+        final JsonElement value = issues.get(0).getValue(field);
+        return value.isJsonNull() ? Optional.empty() : Optional.of(value);
+    }
+}
@@ -4,22 +4,28 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.ParseException;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.embulk.config.ConfigException;
 import org.embulk.input.jira.Issue;
 import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.input.jira.OutputMode;
+import org.embulk.input.jira.PaginationMethod;
 import org.embulk.input.jira.util.JiraException;
 import org.embulk.input.jira.util.JiraUtil;
 import org.embulk.util.retryhelper.RetryExecutor;
@@ -29,27 +35,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.Optional;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 import static java.util.Base64.getEncoder;
 import static org.apache.http.HttpHeaders.ACCEPT;
 import static org.apache.http.HttpHeaders.AUTHORIZATION;
 import static org.apache.http.HttpHeaders.CONTENT_TYPE;
 import static org.embulk.input.jira.Constant.HTTP_TIMEOUT;
+import static org.embulk.input.jira.Constant.IDLE_CONNECTION_TIMEOUT_SEC;
 import static org.embulk.input.jira.Constant.MIN_RESULTS;
 
-public class JiraClient
+/*
+ * The client of the JIRA API for one user of a task (or of the transaction, or of a guess).
+ * Its requests share a pool of keep-alive connections, which is closed with the client.
+ * */
+public class JiraClient implements AutoCloseable
 {
     public JiraClient() {}
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JiraClient.class);
 
+    private CloseableHttpClient pooledHttpClient;
+
     public void checkUserCredentials(final PluginTask task)
     {
         try {
@@ -64,31 +80,116 @@ public class JiraClient
         }
     }
 
+    /*
+     * The time zone of the user, JIRA interprets the dates written in JQL in this time zone
+     * */
+    public ZoneId getUserTimeZone(final PluginTask task)
+    {
+        try {
+            final JsonElement timeZone = new JsonParser().parse(authorizeAndRequest(task, JiraUtil.buildPermissionUrl(task.getUri()), null))
+                    .getAsJsonObject()
+                    .get("timeZone");
+            if (timeZone != null && !timeZone.isJsonNull()) {
+                return ZoneId.of(timeZone.getAsString());
+            }
+        }
+        catch (final JiraException | JsonParseException | IllegalStateException | DateTimeException e) {
+            LOGGER.warn(String.format("Could not get the time zone of the user, use UTC instead. Reason (%s)", e.getMessage()));
+        }
+        return ZoneOffset.UTC;
+    }
+
+    /*
+     * Whether a server answers at the uri of the task, whatever its response
+     * */
+    public void checkEndpoint(final PluginTask task)
+    {
+        try (CloseableHttpResponse response = getPooledHttpClient(task).execute(new HttpGet(task.getUri()))) {
+            response.getStatusLine().getStatusCode();
+        }
+        catch (IOException | IllegalArgumentException e) {
+            throw new ConfigException("JIRA API endpoint is incorrect or not available");
+        }
+    }
+
     public List<Issue> searchIssues(final PluginTask task, final int startAt, final int maxResults)
     {
-        final String response = searchJiraAPI(task, startAt, maxResults);
-        final JsonObject result = new JsonParser().parse(response).getAsJsonObject();
-        return StreamSupport.stream(result.get("issues").getAsJsonArray().spliterator(), false)
-                            .map(jsonElement -> {
-                                final JsonObject json = jsonElement.getAsJsonObject();
-                                final JsonObject fields = json.get("fields").getAsJsonObject();
-                                final Set<Entry<String, JsonElement>> entries = fields.entrySet();
-                                json.remove("fields");
-                                // Merged all properties in fields to the object
-                                for (final Entry<String, JsonElement> entry : entries) {
-                                    json.add(entry.getKey(), entry.getValue());
-                                }
-                                return new Issue(json);
-                            })
-                            .collect(Collectors.toList());
+        return searchIssues(task, task.getJQL().orElse(""), startAt, maxResults);
+    }
+
+    /*
+     * The issues from startAt on the search endpoint of the pagination method.
+     * The enhanced JQL search cannot skip issues, so with token pagination startAt should be 0,
+     * the callers needing an offset use search (the offset search) explicitly
+     * */
+    public List<Issue> searchIssues(final PluginTask task, final String jql, final int startAt, final int maxResults)
+    {
+        if (task.getPaginationMethod() == PaginationMethod.TOKEN) {
+            if (startAt != 0) {
+                throw new IllegalArgumentException(String.format("Token pagination cannot start at the issue %d, only at the first issue", startAt));
+            }
+            return searchByToken(task, jql, null, maxResults, statusCode -> {}).getIssues();
+        }
+        return search(task, jql, startAt, maxResults, statusCode -> {}).getIssues();
+    }
+
+    /*
+     * onRetry is notified with the status code of each failed attempt before it is retried
+     * */
+    public SearchResult search(final PluginTask task, final String jql, final int startAt, final int maxResults, final IntConsumer onRetry)
+    {
+        return search(task, jql, startAt, maxResults, createSearchResponseReader(task), onRetry);
+    }
+
+    public SearchResult search(final PluginTask task, final String jql, final int startAt, final int maxResults,
+            final SearchResponseReader responseReader, final IntConsumer onRetry)
+    {
+        return searchJiraAPI(task, JiraUtil.buildSearchUrl(task.getUri()), createSearchIssuesBody(task, jql, startAt, maxResults), onRetry,
+                entity -> responseReader.read(entity.getContent(), getCharset(entity), maxResults));
+    }
+
+    /*
+     * One page of the enhanced JQL search, a null nextPageToken asks for the first page
+     * */
+    public SearchResult searchByToken(final PluginTask task, final String jql, final String nextPageToken, final int maxResults, final IntConsumer onRetry)
+    {
+        return searchByToken(task, jql, nextPageToken, maxResults, createSearchResponseReader(task), onRetry);
+    }
+
+    public SearchResult searchByToken(final PluginTask task, final String jql, final String nextPageToken, final int maxResults,
+            final SearchResponseReader responseReader, final IntConsumer onRetry)
+    {
+        return searchJiraAPI(task, JiraUtil.buildSearchJqlUrl(task.getUri()), createSearchJqlBody(task, jql, nextPageToken, maxResults), onRetry,
+                entity -> responseReader.read(entity.getContent(), getCharset(entity), maxResults));
     }
 
     public int getTotalCount(final PluginTask task)
     {
-        return new JsonParser().parse(searchJiraAPI(task, 0, MIN_RESULTS)).getAsJsonObject().get("total").getAsInt();
+        return getTotalCount(task, task.getJQL().orElse(""));
+    }
+
+    public int getTotalCount(final PluginTask task, final String jql)
+    {
+        if (task.getPaginationMethod() == PaginationMethod.TOKEN) {
+            // The enhanced search does not return a total, the count is approximate but cheap
+            final JsonObject body = new JsonObject();
+            body.add("jql", new JsonPrimitive(jql));
+            final String response = searchJiraAPI(task, JiraUtil.buildApproximateCountUrl(task.getUri()), body.toString(), statusCode -> {}, EntityUtils::toString);
+            return new JsonParser().parse(response).getAsJsonObject().get("count").getAsInt();
+        }
+        final String response = searchJiraAPI(task, JiraUtil.buildSearchUrl(task.getUri()), createSearchIssuesBody(task, jql, 0, MIN_RESULTS), statusCode -> {}, EntityUtils::toString);
+        return new JsonParser().parse(response).getAsJsonObject().get("total").getAsInt();
+    }
+
+    private SearchResponseReader createSearchResponseReader(final PluginTask task)
+    {
+        return new SearchResponseReader(task.getOutputMode() == OutputMode.RAW);
     }
 
-    private String searchJiraAPI(final PluginTask task, final int startAt, final int maxResults)
+    /*
+     * The response entity is read by entityReader inside the retried call, so a connection lost while reading is retried too
+     * */
+    private <T> T searchJiraAPI(final PluginTask task, final String url, final String body, final IntConsumer onRetry, final EntityReader<T> entityReader)
     {
         try {
             return RetryExecutor.builder()
@@ -96,12 +197,12 @@ public class JiraClient
                     .withInitialRetryWaitMillis(task.getInitialRetryIntervalMillis())
                     .withMaxRetryWaitMillis(task.getMaximumRetryIntervalMillis())
                     .build()
-                    .runInterruptible(new Retryable<String>()
+                    .runInterruptible(new Retryable<T>()
                     {
                 @Override
-                public String call() throws Exception
+                public T call() throws Exception
                 {
-                    return authorizeAndRequest(task, JiraUtil.buildSearchUrl(task.getUri()), createSearchIssuesBody(task, startAt, maxResults));
+                    return authorizeAndRequest(task, url, body, entityReader);
                 }
 
                 @Override
@@ -128,6 +229,7 @@ public class JiraClient
                                         retryWait / 1000,
                                         ((JiraException) exception).getStatusCode());
                         LOGGER.warn(message);
+                        onRetry.accept(((JiraException) exception).getStatusCode());
                     }
                     else {
                         final String message = String
@@ -156,7 +258,14 @@ public class JiraClient
 
     private String authorizeAndRequest(final PluginTask task, final String url, final String body) throws JiraException
     {
-        try (CloseableHttpClient client = createHttpClient()) {
+        return authorizeAndRequest(task, url, body, EntityUtils::toString);
+    }
+
+    private <T> T authorizeAndRequest(final PluginTask task, final String url, final String body, final EntityReader<T> entityReader) throws JiraException
+    {
+        // The pooled client is closed with this client, the consumed responses give their connection back to the pool
+        final CloseableHttpClient client = getHttpClient(task);
+        try {
             HttpRequestBase request;
             if (body == null) {
                 request = createGetRequest(task, url);
@@ -170,7 +279,7 @@ public class JiraClient
                 if (statusCode != HttpStatus.SC_OK) {
                     throw new JiraException(statusCode, extractErrorMessages(EntityUtils.toString(response.getEntity())));
                 }
-                return EntityUtils.toString(response.getEntity());
+                return entityReader.read(response.getEntity());
             }
         }
         catch (final IOException e) {
@@ -178,6 +287,20 @@ public class JiraClient
         }
     }
 
+    /*
+     * JIRA answers in UTF-8 when the response does not tell
+     * */
+    private Charset getCharset(final HttpEntity entity)
+    {
+        try {
+            final Charset charset = ContentType.getOrDefault(entity).getCharset();
+            return charset == null ? StandardCharsets.UTF_8 : charset;
+        }
+        catch (final ParseException | UnsupportedCharsetException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
     private String extractErrorMessages(final String errorResponse)
     {
         final List<String> messages = new ArrayList<>();
@@ -194,16 +317,51 @@ public class JiraClient
     }
 
     @VisibleForTesting
-    public CloseableHttpClient createHttpClient()
+    public CloseableHttpClient getHttpClient(final PluginTask task)
     {
-        return HttpClientBuilder.create()
+        return getPooledHttpClient(task);
+    }
+
+    /*
+     * The pool is created by the first request with the limits of its task, the idle connections are closed in background.
+     * Every request sends its credentials, the cookies (i.e the session of the user) are not kept between the requests
+     * */
+    private synchronized CloseableHttpClient getPooledHttpClient(final PluginTask task)
+    {
+        if (pooledHttpClient == null) {
+            final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(task.getMaxConnections());
+            connectionManager.setDefaultMaxPerRoute(task.getMaxConnectionsPerRoute());
+            pooledHttpClient = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .disableCookieManagement()
+                    .evictExpiredConnections()
+                    .evictIdleConnections(IDLE_CONNECTION_TIMEOUT_SEC, TimeUnit.SECONDS)
                     .setDefaultRequestConfig(RequestConfig.custom()
                                                         .setConnectTimeout(HTTP_TIMEOUT)
                                                         .setConnectionRequestTimeout(HTTP_TIMEOUT)
                                                         .setSocketTimeout(HTTP_TIMEOUT)
-                                                        .setCookieSpec(CookieSpecs.STANDARD)
                                                         .build())
                     .build();
+        }
+        return pooledHttpClient;
+    }
+
+    /*
+     * Close the connections of the pool, a later request opens a new pool
+     * */
+    @Override
+    public synchronized void close()
+    {
+        if (pooledHttpClient != null) {
+            try {
+                pooledHttpClient.close();
+            }
+            catch (final IOException e) {
+                LOGGER.warn(String.format("Could not close the connections to JIRA. Reason (%s)", e.getMessage()));
+            }
+            pooledHttpClient = null;
+        }
     }
 
     private HttpRequestBase createPostRequest(final PluginTask task, final String url, final String body) throws IOException
@@ -243,16 +401,46 @@ public class JiraClient
         return request;
     }
 
-    private String createSearchIssuesBody(final PluginTask task, final int startAt, final int maxResults)
+    private String createSearchIssuesBody(final PluginTask task, final String jql, final int startAt, final int maxResults)
     {
         final JsonObject body = new JsonObject();
-        final Optional<String> jql = task.getJQL();
-        body.add("jql", new JsonPrimitive(jql.orElse("")));
+        body.add("jql", new JsonPrimitive(jql));
         body.add("startAt", new JsonPrimitive(startAt));
         body.add("maxResults", new JsonPrimitive(maxResults));
-        final JsonArray fields = new JsonArray();
-        fields.add("*all");
-        body.add("fields", fields);
+        body.add("fields", createFields(task));
+        return body.toString();
+    }
+
+    private String createSearchJqlBody(final PluginTask task, final String jql, final String nextPageToken, final int maxResults)
+    {
+        final JsonObject body = new JsonObject();
+        body.add("jql", new JsonPrimitive(jql));
+        if (nextPageToken != null) {
+            body.add("nextPageToken", new JsonPrimitive(nextPageToken));
+        }
+        body.add("maxResults", new JsonPrimitive(maxResults));
+        body.add("fields", createFields(task));
         return body.toString();
     }
+
+    /*
+     * The fields needed by the columns when they are known, otherwise all of them for guessing
+     * */
+    private JsonArray createFields(final PluginTask task)
+    {
+        final JsonArray fields = new JsonArray();
+        final List<String> names = task.getFields();
+        if (names == null || names.isEmpty() || task.getFetchAllFields()) {
+            fields.add("*all");
+        }
+        else {
+            names.forEach(fields::add);
+        }
+        return fields;
+    }
+
+    private interface EntityReader<T>
+    {
+        T read(HttpEntity entity) throws IOException;
+    }
 }
@@ -0,0 +1,127 @@
+package org.embulk.input.jira.client;
+
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * The page requests covering the issues from startAt (inclusive) to endAt (exclusive) of a search result.
+ * A negative endAt means until the end of the result set, it is then taken from the total of the first page
+ * so no separate request is needed to count the issues.
+ * The size of a page is decided when its request is scheduled. A request loops until its whole range is loaded
+ * because JIRA may return less issues than asked, and the pagination stops early on an empty page or when
+ * the result set turns out to be shorter.
+ * */
+public class OffsetPagination implements Pagination
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(OffsetPagination.class);
+
+    private final JiraClient jiraClient;
+    private final PluginTask task;
+    private final String jql;
+    private final PageSize pageSize;
+    private final SearchResponseReader responseReader;
+    private final CountDownLatch firstPageLatch = new CountDownLatch(1);
+    private volatile int endAt;
+    private int nextStartAt;
+    private boolean firstPageScheduled;
+    private volatile boolean exhausted;
+
+    public OffsetPagination(final JiraClient jiraClient, final PluginTask task, final String jql, final int startAt, final int endAt,
+            final PageSize pageSize, final SearchResponseReader responseReader)
+    {
+        this.jiraClient = jiraClient;
+        this.task = task;
+        this.jql = jql;
+        this.nextStartAt = startAt;
+        this.endAt = endAt;
+        this.pageSize = pageSize;
+        this.responseReader = responseReader;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (endAt < 0 && firstPageScheduled) {
+            awaitFirstPage();
+        }
+        return !exhausted && (endAt < 0 || nextStartAt < endAt);
+    }
+
+    @Override
+    public Callable<List<Issue>> next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final int startAt = nextStartAt;
+        final int size = endAt < 0 ? pageSize.get() : Math.min(pageSize.get(), endAt - startAt);
+        nextStartAt += size;
+        if (endAt < 0) {
+            firstPageScheduled = true;
+            return () -> fetchFirstPage(startAt, size);
+        }
+        return () -> fetch(startAt, size);
+    }
+
+    private List<Issue> fetchFirstPage(final int startAt, final int size)
+    {
+        try {
+            return fetch(startAt, size);
+        }
+        finally {
+            if (endAt < 0) {
+                // The first page failed, the consumer gets the failure from the page
+                exhausted = true;
+            }
+            firstPageLatch.countDown();
+        }
+    }
+
+    private List<Issue> fetch(final int startAt, final int size)
+    {
+        LOGGER.info(String.format("Fetching issues from %d to %d", startAt + 1, startAt + size));
+        final List<Issue> issues = new ArrayList<>(size);
+        while (issues.size() < size) {
+            final int requested = Math.min(size - issues.size(), pageSize.get());
+            final long started = System.currentTimeMillis();
+            final SearchResult result = jiraClient.search(task, jql, startAt + issues.size(), requested, responseReader, pageSize::onRetry);
+            pageSize.onResponse(requested, result, System.currentTimeMillis() - started);
+            if (endAt < 0) {
+                endAt = result.getTotal() < 0 ? Integer.MAX_VALUE : result.getTotal();
+                LOGGER.info(String.format("Total issues (%d)", result.getTotal()));
+            }
+            issues.addAll(result.getIssues());
+            if (result.getIssues().isEmpty()) {
+                exhausted = true;
+                break;
+            }
+            // Less issues than the applied maxResults means the end of the result set
+            if (result.getIssues().size() < Math.min(requested, result.getMaxResults())) {
+                if (result.getTotal() < 0 || startAt + issues.size() >= result.getTotal()) {
+                    exhausted = true;
+                }
+                break;
+            }
+        }
+        return issues;
+    }
+
+    private void awaitFirstPage()
+    {
+        try {
+            firstPageLatch.await();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package org.embulk.input.jira.client;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.embulk.input.jira.Issue;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Run the search requests of a task in background threads, up to prefetchPages pages ahead of the page being consumed,
+ * so fetching the next pages overlaps with writing the current one.
+ * fetchConcurrency threads run the requests, the pages are returned in the order of the requests if preserveOrder is set,
+ * otherwise in the order they arrive.
+ * With prefetchPages = 0 and fetchConcurrency = 1 the requests are run by the consumer thread when the page is needed.
+ * */
+public class PageFetcher implements AutoCloseable
+{
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("embulk-input-jira-fetcher-%d")
+            .setDaemon(true)
+            .build();
+
+    private final Iterator<Callable<List<Issue>>> requests;
+    private final int scheduledPages;
+    private final ExecutorService executor;
+    private final CompletionService<List<Issue>> completionService;
+    private final Deque<Future<List<Issue>>> pending = new ArrayDeque<>();
+
+    public PageFetcher(final Iterator<Callable<List<Issue>>> requests, final int prefetchPages)
+    {
+        this(requests, prefetchPages, 1, true);
+    }
+
+    public PageFetcher(final Iterator<Callable<List<Issue>>> requests, final int prefetchPages, final int fetchConcurrency, final boolean preserveOrder)
+    {
+        this.requests = requests;
+        // Enough pages are scheduled to keep all the threads busy
+        this.scheduledPages = Math.max(prefetchPages, fetchConcurrency);
+        if (prefetchPages > 0 || fetchConcurrency > 1) {
+            this.executor = Executors.newFixedThreadPool(fetchConcurrency, THREAD_FACTORY);
+            this.completionService = preserveOrder ? null : new ExecutorCompletionService<>(executor);
+        }
+        else {
+            this.executor = null;
+            this.completionService = null;
+        }
+    }
+
+    public boolean hasNext()
+    {
+        return !pending.isEmpty() || requests.hasNext();
+    }
+
+    public List<Issue> next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (executor == null) {
+            return call(requests.next());
+        }
+        schedule(1);
+        final Future<List<Issue>> page = completionService == null ? pending.poll() : takeCompleted();
+        // Keep the background threads busy while the caller consumes this page
+        schedule(scheduledPages);
+        return await(page);
+    }
+
+    @Override
+    public void close()
+    {
+        if (executor != null) {
+            pending.forEach(page -> page.cancel(true));
+            executor.shutdownNow();
+        }
+    }
+
+    private void schedule(final int size)
+    {
+        while (pending.size() < size && requests.hasNext()) {
+            pending.add(completionService == null ? executor.submit(requests.next()) : completionService.submit(requests.next()));
+        }
+    }
+
+    private Future<List<Issue>> takeCompleted()
+    {
+        try {
+            final Future<List<Issue>> page = completionService.take();
+            pending.remove(page);
+            return page;
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<Issue> call(final Callable<List<Issue>> request)
+    {
+        try {
+            return request.call();
+        }
+        catch (final RuntimeException e) {
+            throw e;
+        }
+        catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<Issue> await(final Future<List<Issue>> page)
+    {
+        try {
+            return page.get();
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
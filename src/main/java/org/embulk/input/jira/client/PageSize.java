@@ -0,0 +1,75 @@
+package org.embulk.input.jira.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.embulk.input.jira.Constant.ADAPTIVE_PAGE_LATENCY_MILLIS;
+import static org.embulk.input.jira.Constant.ADAPTIVE_PAGE_RESPONSE_SIZE;
+import static org.embulk.input.jira.Constant.MIN_RESULTS;
+
+/*
+ * The number of issues asked per search request.
+ * It never exceeds the maxResults applied by JIRA. When adaptive, it doubles up to maxPageSize while the responses
+ * are fast and small, and halves when they are slow, large, time out or fail with 5xx.
+ * Shared by the fetcher threads of a task.
+ * */
+public class PageSize
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageSize.class);
+
+    private final boolean adaptive;
+    private int maxPageSize;
+    private int current;
+
+    public PageSize(final int pageSize, final int maxPageSize, final boolean adaptive)
+    {
+        this.current = pageSize;
+        this.maxPageSize = adaptive ? maxPageSize : pageSize;
+        this.adaptive = adaptive;
+    }
+
+    public synchronized int get()
+    {
+        return current;
+    }
+
+    public synchronized void onResponse(final int requested, final SearchResult result, final long elapsedMillis)
+    {
+        if (result.getMaxResults() > 0 && result.getMaxResults() < requested && result.getMaxResults() < maxPageSize) {
+            LOGGER.info(String.format("JIRA limits the page size to %d", result.getMaxResults()));
+            maxPageSize = result.getMaxResults();
+            current = Math.min(current, maxPageSize);
+        }
+        if (!adaptive) {
+            return;
+        }
+        if (elapsedMillis > ADAPTIVE_PAGE_LATENCY_MILLIS || result.getResponseSize() > ADAPTIVE_PAGE_RESPONSE_SIZE) {
+            shrink();
+        }
+        else if (requested >= current
+                && elapsedMillis < ADAPTIVE_PAGE_LATENCY_MILLIS / 2
+                && result.getResponseSize() < ADAPTIVE_PAGE_RESPONSE_SIZE / 2
+                && current < maxPageSize) {
+            current = Math.min(current * 2, maxPageSize);
+            LOGGER.info(String.format("Increase the page size to %d", current));
+        }
+    }
+
+    /*
+     * Called before retrying a request, statusCode is -1 when the request failed without response (i.e timeout)
+     * */
+    public synchronized void onRetry(final int statusCode)
+    {
+        if (adaptive && (statusCode < 0 || statusCode >= 500)) {
+            shrink();
+        }
+    }
+
+    private void shrink()
+    {
+        if (current > MIN_RESULTS) {
+            current = Math.max(current / 2, MIN_RESULTS);
+            LOGGER.info(String.format("Decrease the page size to %d", current));
+        }
+    }
+}
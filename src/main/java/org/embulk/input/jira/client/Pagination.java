@@ -0,0 +1,15 @@
+package org.embulk.input.jira.client;
+
+import org.embulk.input.jira.Issue;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/*
+ * The page requests of a search, in the order of the search result.
+ * Each request is run once, possibly by another thread than the one iterating.
+ * */
+public interface Pagination extends Iterator<Callable<List<Issue>>>
+{
+}
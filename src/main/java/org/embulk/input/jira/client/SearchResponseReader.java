@@ -0,0 +1,249 @@
+package org.embulk.input.jira.client;
+
+import com.google.common.io.CountingInputStream;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.IssuePathTrie;
+import org.embulk.input.jira.util.JsonValues;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Decode a page of the search APIs from the response stream with a token stream.
+ * The issues are either built as trees whose fields are read as properties of the issue (see Issue.withFields), limited to the values
+ * of the projection if any, or built as msgpack values when raw is set, keeping only id, key, created and updated as Gson values.
+ * */
+public class SearchResponseReader
+{
+    private final boolean raw;
+    private final IssuePathTrie.Node projection;
+
+    public SearchResponseReader(final boolean raw)
+    {
+        this(raw, null);
+    }
+
+    /*
+     * The issues are only built with the values of the paths if they are not null
+     * */
+    public SearchResponseReader(final boolean raw, final IssuePathTrie paths)
+    {
+        this.raw = raw;
+        this.projection = paths == null ? null : paths.getRoot();
+    }
+
+    /*
+     * Decode the response stream into a page, the response is never held as a whole:
+     * only the issue being decoded is materialized before it is added to the page
+     * */
+    public SearchResult read(final InputStream response, final Charset charset, final int maxResults) throws IOException
+    {
+        final List<Issue> issues = new ArrayList<>();
+        final CountingInputStream counter = new CountingInputStream(response);
+        int total = -1;
+        int appliedMaxResults = maxResults;
+        String nextPageToken = null;
+        boolean last = false;
+        try (final JsonReader reader = new JsonReader(new InputStreamReader(counter, charset))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (name) {
+                case "issues":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        issues.add(readIssue(reader));
+                    }
+                    reader.endArray();
+                    break;
+                case "total":
+                    total = reader.nextInt();
+                    break;
+                case "maxResults":
+                    appliedMaxResults = reader.nextInt();
+                    break;
+                case "nextPageToken":
+                    nextPageToken = reader.nextString();
+                    break;
+                case "isLast":
+                    last = reader.nextBoolean();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+                }
+            }
+            reader.endObject();
+        }
+        catch (final JsonIOException e) {
+            // The connection was lost while decoding an issue, it is retried as the other IO errors
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        catch (final IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            // Not a search response, it is not worth retrying
+            throw new JsonParseException(e);
+        }
+        return new SearchResult(issues, total, appliedMaxResults, (int) Math.min(counter.getCount(), Integer.MAX_VALUE), nextPageToken, last);
+    }
+
+    private Issue readIssue(final JsonReader reader) throws IOException
+    {
+        if (raw) {
+            return readRawIssue(reader);
+        }
+        if (projection != null) {
+            return readProjectedIssue(reader);
+        }
+        return readWholeIssue(reader);
+    }
+
+    private Issue readWholeIssue(final JsonReader reader)
+    {
+        // The properties in fields are read through the issue, as if merged into it
+        return Issue.withFields(new JsonParser().parse(reader).getAsJsonObject());
+    }
+
+    /*
+     * Build the issue with the projected values only, the properties of fields are merged on the way
+     * */
+    private Issue readProjectedIssue(final JsonReader reader) throws IOException
+    {
+        final JsonObject json = new JsonObject();
+        // As in the merge of the whole issue, fields override the properties of the issue having the same name
+        final Set<String> fieldNames = new HashSet<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name.equals("fields") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String field = reader.nextName();
+                    final IssuePathTrie.Node child = projection.get(field);
+                    if (child == null) {
+                        reader.skipValue();
+                    }
+                    else {
+                        json.add(field, readProjectedValue(reader, child));
+                        fieldNames.add(field);
+                    }
+                }
+                reader.endObject();
+            }
+            else {
+                final IssuePathTrie.Node child = projection.get(name);
+                if (child == null || fieldNames.contains(name)) {
+                    reader.skipValue();
+                }
+                else {
+                    json.add(name, readProjectedValue(reader, child));
+                }
+            }
+        }
+        reader.endObject();
+        return new Issue(json);
+    }
+
+    private JsonElement readProjectedValue(final JsonReader reader, final IssuePathTrie.Node node) throws IOException
+    {
+        if (node.isTerminal()) {
+            return new JsonParser().parse(reader);
+        }
+        switch (reader.peek()) {
+        case BEGIN_OBJECT:
+            final JsonObject object = new JsonObject();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                final IssuePathTrie.Node child = node.get(name);
+                if (child == null) {
+                    reader.skipValue();
+                }
+                else {
+                    object.add(name, readProjectedValue(reader, child));
+                }
+            }
+            reader.endObject();
+            return object;
+        case BEGIN_ARRAY:
+            // Issue.getValue looks up the key in each object of an array and keeps the other elements as they are
+            final JsonArray array = new JsonArray();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                array.add(reader.peek() == JsonToken.BEGIN_OBJECT ? readProjectedValue(reader, node) : new JsonParser().parse(reader));
+            }
+            reader.endArray();
+            return array;
+        default:
+            return new JsonParser().parse(reader);
+        }
+    }
+
+    /*
+     * Build the value of the issue from the tokens, picking the metadata values on the way
+     * */
+    private Issue readRawIssue(final JsonReader reader) throws IOException
+    {
+        final JsonObject metadata = new JsonObject();
+        final List<Value> keyValues = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            keyValues.add(ValueFactory.newString(name));
+            if (name.equals("fields") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                final List<Value> fields = new ArrayList<>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String field = reader.nextName();
+                    fields.add(ValueFactory.newString(field));
+                    if ((field.equals("created") || field.equals("updated")) && reader.peek() == JsonToken.STRING) {
+                        fields.add(readMetadata(reader, metadata, field));
+                    }
+                    else {
+                        fields.add(JsonValues.read(reader));
+                    }
+                }
+                reader.endObject();
+                keyValues.add(ValueFactory.newMap(fields.toArray(new Value[0])));
+            }
+            else if ((name.equals("id") || name.equals("key")) && reader.peek() == JsonToken.STRING) {
+                keyValues.add(readMetadata(reader, metadata, name));
+            }
+            else {
+                keyValues.add(JsonValues.read(reader));
+            }
+        }
+        reader.endObject();
+        return new Issue(metadata, ValueFactory.newMap(keyValues.toArray(new Value[0])));
+    }
+
+    private Value readMetadata(final JsonReader reader, final JsonObject metadata, final String name) throws IOException
+    {
+        final String value = reader.nextString();
+        metadata.addProperty(name, value);
+        return ValueFactory.newString(value);
+    }
+}
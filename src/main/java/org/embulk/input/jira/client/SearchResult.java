@@ -0,0 +1,69 @@
+package org.embulk.input.jira.client;
+
+import org.embulk.input.jira.Issue;
+
+import java.util.List;
+
+/*
+ * One page of the search API response
+ * */
+public class SearchResult
+{
+    private final List<Issue> issues;
+    private final int total;
+    private final int maxResults;
+    private final int responseSize;
+    private final String nextPageToken;
+    private final boolean last;
+
+    public SearchResult(final List<Issue> issues, final int total, final int maxResults, final int responseSize)
+    {
+        this(issues, total, maxResults, responseSize, null, false);
+    }
+
+    public SearchResult(final List<Issue> issues, final int total, final int maxResults, final int responseSize, final String nextPageToken, final boolean last)
+    {
+        this.issues = issues;
+        this.total = total;
+        this.maxResults = maxResults;
+        this.responseSize = responseSize;
+        this.nextPageToken = nextPageToken;
+        this.last = last;
+    }
+
+    public List<Issue> getIssues()
+    {
+        return issues;
+    }
+
+    public int getTotal()
+    {
+        return total;
+    }
+
+    /*
+     * The page size actually applied by JIRA, it may be lower than the requested one
+     * */
+    public int getMaxResults()
+    {
+        return maxResults;
+    }
+
+    public int getResponseSize()
+    {
+        return responseSize;
+    }
+
+    /*
+     * The cursor of the next page of the enhanced JQL search, null on the last page or with offset pagination
+     * */
+    public String getNextPageToken()
+    {
+        return nextPageToken;
+    }
+
+    public boolean isLast()
+    {
+        return last;
+    }
+}
@@ -0,0 +1,93 @@
+package org.embulk.input.jira.client;
+
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * The page requests of the enhanced JQL search, each page returns the cursor of the next one.
+ * The next request can only be created when the previous page has arrived, so at most one request is in flight,
+ * hasNext() waits for it. The search does not count the issues, the pagination stops on the last page.
+ * */
+public class TokenPagination implements Pagination
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenPagination.class);
+
+    private final JiraClient jiraClient;
+    private final PluginTask task;
+    private final String jql;
+    private final PageSize pageSize;
+    private final SearchResponseReader responseReader;
+    private CountDownLatch pageLatch;
+    private volatile String nextPageToken;
+    private volatile boolean exhausted;
+    private int pageCount;
+
+    public TokenPagination(final JiraClient jiraClient, final PluginTask task, final String jql, final PageSize pageSize, final SearchResponseReader responseReader)
+    {
+        this.jiraClient = jiraClient;
+        this.task = task;
+        this.jql = jql;
+        this.pageSize = pageSize;
+        this.responseReader = responseReader;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (pageLatch != null) {
+            awaitPage();
+        }
+        return !exhausted;
+    }
+
+    @Override
+    public Callable<List<Issue>> next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final String token = nextPageToken;
+        final int size = pageSize.get();
+        final int page = ++pageCount;
+        pageLatch = new CountDownLatch(1);
+        final CountDownLatch latch = pageLatch;
+        return () -> fetch(token, size, page, latch);
+    }
+
+    private List<Issue> fetch(final String token, final int size, final int page, final CountDownLatch latch)
+    {
+        // Stay exhausted if the request fails, the consumer gets the failure from the page
+        boolean last = true;
+        try {
+            LOGGER.info(String.format("Fetching page %d of %d issues", page, size));
+            final long started = System.currentTimeMillis();
+            final SearchResult result = jiraClient.searchByToken(task, jql, token, size, responseReader, pageSize::onRetry);
+            pageSize.onResponse(size, result, System.currentTimeMillis() - started);
+            nextPageToken = result.getNextPageToken();
+            last = result.isLast() || result.getNextPageToken() == null || result.getIssues().isEmpty();
+            return result.getIssues();
+        }
+        finally {
+            exhausted = last;
+            latch.countDown();
+        }
+    }
+
+    private void awaitPage()
+    {
+        try {
+            pageLatch.await();
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
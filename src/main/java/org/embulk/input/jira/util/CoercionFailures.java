@@ -0,0 +1,50 @@
+package org.embulk.input.jira.util;
+
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Count per column the values set to null because they could not be coerced to the column type
+ * (i.e an object in a long column or a text in a timestamp column), the missing and null values are not counted.
+ * The issues may be converted by several threads, the counts are atomic
+ * */
+public class CoercionFailures
+{
+    private final Schema schema;
+    private final AtomicLongArray counts;
+
+    public CoercionFailures(final Schema schema)
+    {
+        this.schema = schema;
+        this.counts = new AtomicLongArray(schema.getColumnCount());
+    }
+
+    public void increment(final Column column)
+    {
+        counts.incrementAndGet(column.getIndex());
+    }
+
+    public long get(final Column column)
+    {
+        return counts.get(column.getIndex());
+    }
+
+    /*
+     * The counts by column name, without the columns having no failure
+     * */
+    public Map<String, Long> toMap()
+    {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = counts.get(i);
+            if (count > 0) {
+                map.put(schema.getColumnName(i), count);
+            }
+        }
+        return map;
+    }
+}
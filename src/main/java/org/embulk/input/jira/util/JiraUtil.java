@@ -2,42 +2,53 @@ package org.embulk.input.jira.util;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
-import org.apache.http.client.config.CookieSpecs;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.embulk.config.ConfigException;
-import org.embulk.config.ConfigSource;
-import org.embulk.input.jira.Issue;
 import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.input.jira.PaginationMethod;
+import org.embulk.input.jira.Partition;
+import org.embulk.input.jira.PartitionMethod;
+import org.embulk.input.jira.client.JiraClient;
 import org.embulk.spi.Column;
-import org.embulk.spi.ColumnVisitor;
-import org.embulk.spi.PageBuilder;
 import org.embulk.spi.Schema;
-import org.embulk.util.config.units.ColumnConfig;
-import org.embulk.util.json.JsonParser;
-import org.embulk.util.timestamp.TimestampFormatter;
+import org.embulk.spi.type.Types;
 
 import javax.ws.rs.core.UriBuilder;
 
-import java.io.IOException;
+import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static org.embulk.input.jira.Constant.APPROXIMATE_COUNT_URI_PATH;
 import static org.embulk.input.jira.Constant.CREDENTIAL_URI_PATH;
 import static org.embulk.input.jira.Constant.DEFAULT_TIMESTAMP_PATTERN;
-import static org.embulk.input.jira.Constant.HTTP_TIMEOUT;
+import static org.embulk.input.jira.Constant.SEARCH_JQL_URI_PATH;
 import static org.embulk.input.jira.Constant.SEARCH_URI_PATH;
 
 public final class JiraUtil
 {
+    static final String RAW_ISSUE_COLUMN = "issue";
+    private static final List<String> ISSUE_PROPERTIES = Arrays.asList("id", "key", "self", "expand");
+    private static final Pattern JQL_ORDER_BY_PATTERN = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final DateTimeFormatter JQL_DATE_FORMATTER = DateTimeFormatter.ofPattern("uuuu/MM/dd HH:mm");
+    private static final TimestampParser JIRA_TIMESTAMP_PARSER = TimestampParser.of(DEFAULT_TIMESTAMP_PATTERN);
+    private static final DateTimeFormatter JIRA_TIMESTAMP_OUTPUT_FORMATTER = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSZ");
+
     private JiraUtil() {}
 
     public static int calculateTotalPage(final int totalCount, final int resultPerPage)
@@ -45,6 +56,196 @@ public final class JiraUtil
         return (int) Math.ceil((double) totalCount / resultPerPage);
     }
 
+    /*
+     * Split the first totalCount issues into at most taskCount contiguous partitions.
+     * The partition size is rounded up to a multiple of the page size so every request but the last one is a full page,
+     * the last partition is unbounded to also pick up the issues created after the split.
+     * A page size below 1 would never move startAt forward, so it is rejected.
+     * */
+    public static List<Partition> createOffsetPartitions(final int totalCount, final int taskCount, final int resultPerPage)
+    {
+        if (taskCount < 1 || resultPerPage < 1) {
+            throw new IllegalArgumentException(String.format("Cannot split the issues into %d tasks of %d issues per page", taskCount, resultPerPage));
+        }
+        final int partitionPage = calculateTotalPage(calculateTotalPage(totalCount, taskCount), resultPerPage);
+        final int partitionSize = Math.max(partitionPage, 1) * resultPerPage;
+        final List<Partition> partitions = new ArrayList<>();
+        int startAt = 0;
+        while (startAt + partitionSize < totalCount) {
+            partitions.add(new Partition(startAt, startAt + partitionSize));
+            startAt += partitionSize;
+        }
+        partitions.add(new Partition(startAt, -1));
+        return partitions;
+    }
+
+    /*
+     * Pick samplePages distinct pages out of pageCount, the first page and the others drawn uniformly by reservoir sampling,
+     * in the order of the pages
+     * */
+    public static List<Integer> selectSamplePages(final int pageCount, final int samplePages, final Random random)
+    {
+        final int size = Math.min(samplePages, pageCount);
+        final List<Integer> pages = new ArrayList<>(Math.max(size, 0));
+        if (size <= 0) {
+            return pages;
+        }
+        for (int page = 0; page < pageCount; page++) {
+            if (pages.size() < size) {
+                pages.add(page);
+            }
+            else {
+                final int index = random.nextInt(page);
+                // The first page is always kept
+                if (index > 0 && index < size) {
+                    pages.set(index, page);
+                }
+            }
+        }
+        Collections.sort(pages);
+        return pages;
+    }
+
+    /*
+     * Split the issue ids from minId to maxId into at most taskCount ranges of the same width.
+     * The first and last ranges are open-ended so the issues outside the observed ids are not lost.
+     * */
+    public static List<Partition> createIdPartitions(final long minId, final long maxId, final int taskCount)
+    {
+        final long width = Math.max((long) Math.ceil((double) (maxId - minId + 1) / taskCount), 1);
+        final List<Partition> partitions = new ArrayList<>();
+        long lowerBound = -1;
+        for (long upperBound = minId + width; upperBound <= maxId; upperBound += width) {
+            partitions.add(Partition.filtered(lowerBound < 0
+                    ? String.format("id < %d", upperBound)
+                    : String.format("id >= %d AND id < %d", lowerBound, upperBound)));
+            lowerBound = upperBound;
+        }
+        partitions.add(lowerBound < 0 ? Partition.all() : Partition.filtered(String.format("id >= %d", lowerBound)));
+        return partitions;
+    }
+
+    /*
+     * Narrow the JQL with an extra condition, keeping the ORDER BY clause at the end
+     * */
+    public static String appendJqlFilter(final String jql, final String filter)
+    {
+        if (isNullOrEmpty(filter)) {
+            return jql;
+        }
+        final int orderStart = findJqlOrder(jql);
+        final String condition = jql.substring(0, orderStart).trim();
+        final String order = jql.substring(orderStart).trim();
+        final String filtered = condition.isEmpty() ? filter : String.format("(%s) AND %s", condition, filter);
+        return order.isEmpty() ? filtered : filtered + " " + order;
+    }
+
+    /*
+     * Replace the ORDER BY clause of the JQL
+     * */
+    public static String orderJql(final String jql, final String order)
+    {
+        final String condition = jql.substring(0, findJqlOrder(jql)).trim();
+        return condition.isEmpty() ? "ORDER BY " + order : String.format("%s ORDER BY %s", condition, order);
+    }
+
+    /*
+     * The start of the ORDER BY clause, the length of the JQL if there is none.
+     * The quoted values (i.e summary ~ "sort order by date") are blanked out before matching, keeping the positions
+     * */
+    private static int findJqlOrder(final String jql)
+    {
+        final StringBuilder unquoted = new StringBuilder(jql);
+        char quote = 0;
+        for (int i = 0; i < jql.length(); i++) {
+            final char c = jql.charAt(i);
+            if (quote == 0) {
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                continue;
+            }
+            unquoted.setCharAt(i, ' ');
+            if (c == '\\' && i + 1 < jql.length()) {
+                unquoted.setCharAt(++i, ' ');
+            }
+            else if (c == quote) {
+                quote = 0;
+            }
+        }
+        final Matcher matcher = JQL_ORDER_BY_PATTERN.matcher(unquoted);
+        int orderStart = jql.length();
+        while (matcher.find()) {
+            orderStart = matcher.start();
+        }
+        return orderStart;
+    }
+
+    /*
+     * Condition on a date field for the window [from, to), a null bound leaves the window open on that side.
+     * JQL dates have minute precision and are interpreted in the time zone of the user.
+     * */
+    public static String buildTimeWindowFilter(final String field, final Instant from, final Instant to, final ZoneId zone)
+    {
+        final List<String> conditions = new ArrayList<>();
+        if (from != null) {
+            conditions.add(String.format("%s >= \"%s\"", field, JQL_DATE_FORMATTER.format(from.atZone(zone))));
+        }
+        if (to != null) {
+            conditions.add(String.format("%s < \"%s\"", field, JQL_DATE_FORMATTER.format(to.atZone(zone))));
+        }
+        return String.join(" AND ", conditions);
+    }
+
+    /*
+     * For parsing the date time fields of JIRA (i.e created, updated), return null if the value could not be parsed
+     * */
+    public static Instant parseJiraTimestamp(final String value)
+    {
+        return JIRA_TIMESTAMP_PARSER.parse(value);
+    }
+
+    public static String formatJiraTimestamp(final Instant value)
+    {
+        return JIRA_TIMESTAMP_OUTPUT_FORMATTER.format(value.atOffset(ZoneOffset.UTC));
+    }
+
+    /*
+     * The later of current and the date time field value, ignore the value if it is not a timestamp
+     * */
+    public static Instant maxInstant(final Instant current, final JsonElement value)
+    {
+        if (value == null || !value.isJsonPrimitive()) {
+            return current;
+        }
+        final Instant instant = parseJiraTimestamp(value.getAsString());
+        if (instant == null || (current != null && !instant.isAfter(current))) {
+            return current;
+        }
+        return instant;
+    }
+
+    /*
+     * The JIRA fields holding the values of the columns: the first segment of the column names,
+     * except the properties of the issue itself which JIRA always returns
+     * */
+    public static List<String> getRequestedFields(final Schema schema, final List<String> extraFields)
+    {
+        final Set<String> fields = new LinkedHashSet<>();
+        for (final Column column : schema.getColumns()) {
+            final String field = column.getName().split("\\.", 2)[0];
+            if (!ISSUE_PROPERTIES.contains(field)) {
+                fields.add(field);
+            }
+        }
+        fields.addAll(extraFields);
+        if (fields.isEmpty()) {
+            // An empty list would make JIRA return its default fields
+            fields.add("id");
+        }
+        return new ArrayList<>(fields);
+    }
+
     public static String buildPermissionUrl(final String url)
     {
         return UriBuilder.fromUri(url).path(CREDENTIAL_URI_PATH).build().toString();
@@ -55,7 +256,20 @@ public final class JiraUtil
         return UriBuilder.fromUri(url).path(SEARCH_URI_PATH).build().toString();
     }
 
-    public static void validateTaskConfig(final PluginTask task)
+    public static String buildSearchJqlUrl(final String url)
+    {
+        return UriBuilder.fromUri(url).path(SEARCH_JQL_URI_PATH).build().toString();
+    }
+
+    public static String buildApproximateCountUrl(final String url)
+    {
+        return UriBuilder.fromUri(url).path(APPROXIMATE_COUNT_URI_PATH).build().toString();
+    }
+
+    /*
+     * The endpoint is checked with the connections of the client which is going to request it
+     * */
+    public static void validateTaskConfig(final PluginTask task, final JiraClient jiraClient)
     {
         final String username = task.getUsername();
         if (isNullOrEmpty(username)) {
@@ -69,21 +283,11 @@ public final class JiraUtil
         if (isNullOrEmpty(uri)) {
             throw new ConfigException("JIRA API endpoint could not be empty");
         }
-        try (CloseableHttpClient client = HttpClientBuilder.create()
-                                            .setDefaultRequestConfig(RequestConfig.custom()
-                                                                                .setConnectTimeout(HTTP_TIMEOUT)
-                                                                                .setConnectionRequestTimeout(HTTP_TIMEOUT)
-                                                                                .setSocketTimeout(HTTP_TIMEOUT)
-                                                                                .setCookieSpec(CookieSpecs.STANDARD)
-                                                                                .build())
-                                            .build()) {
-            final HttpGet request = new HttpGet(uri);
-            try (CloseableHttpResponse response = client.execute(request)) {
-                response.getStatusLine().getStatusCode();
-            }
+        if (task.getMaxConnections() < 1) {
+            throw new ConfigException("Max connections should be equal or greater than 1");
         }
-        catch (IOException | IllegalArgumentException e) {
-            throw new ConfigException("JIRA API endpoint is incorrect or not available");
+        if (task.getMaxConnectionsPerRoute() < 1) {
+            throw new ConfigException("Max connections per route should be equal or greater than 1");
         }
         final int retryInitialWaitSec = task.getInitialRetryIntervalMillis();
         if (retryInitialWaitSec < 1) {
@@ -93,174 +297,179 @@ public final class JiraUtil
         if (retryLimit < 0 || retryLimit > 10) {
             throw new ConfigException("Retry limit should between 0 and 10");
         }
+        if (task.getTaskCount() < 1) {
+            throw new ConfigException("Task count should be equal or greater than 1");
+        }
+        if (task.getPrefetchPages() < 0) {
+            throw new ConfigException("Prefetch pages should be equal or greater than 0");
+        }
+        if (task.getFetchConcurrency() < 1) {
+            throw new ConfigException("Fetch concurrency should be equal or greater than 1");
+        }
+        if (task.getConversionThreads() < 1) {
+            throw new ConfigException("Conversion threads should be equal or greater than 1");
+        }
+        if (task.getGuessSamplePages() < 0) {
+            throw new ConfigException("Guess sample pages should be equal or greater than 0");
+        }
+        if (task.getPageSize() < 1) {
+            throw new ConfigException("Page size should be equal or greater than 1");
+        }
+        if (task.getAdaptivePageSize() && task.getMaxPageSize() < task.getPageSize()) {
+            throw new ConfigException("Max page size should be equal or greater than page size");
+        }
+        if (task.getPaginationMethod() == PaginationMethod.TOKEN && task.getTaskCount() > 1 && task.getPartitionMethod() == PartitionMethod.OFFSET) {
+            throw new ConfigException("Token pagination cannot split the issues by offset, use partition method id, updated or created");
+        }
+        if (task.getIncrementalOverlapMinutes() < 0) {
+            throw new ConfigException("Incremental overlap minutes should be equal or greater than 0");
+        }
+        if (task.getPartitionWindowHours() < 1) {
+            throw new ConfigException("Partition window hours should be equal or greater than 1");
+        }
+        if (task.getPartitionMaxIssues().isPresent() && task.getPartitionMaxIssues().get() < 1) {
+            throw new ConfigException("Partition max issues should be equal or greater than 1");
+        }
+        // Last, so the invalid settings are rejected before any request
+        jiraClient.checkEndpoint(task);
     }
 
     /*
-     * For getting the timestamp value of the node
-     * Sometime if the parser could not parse the value then return null
+     * For getting the Long value of the node, null if it cannot be coerced (i.e a JSON value but user modified it as long).
+     * The types are checked up front instead of catching the exceptions of Gson, the mixed typed fields being common
      * */
-    private static Instant getTimestampValue(final PluginTask task, final Column column, final String value)
+    static Long getLongValue(final JsonElement value)
     {
-        final List<ColumnConfig> columnConfigs = task.getColumns().getColumns();
-        String pattern = DEFAULT_TIMESTAMP_PATTERN;
-        for (final ColumnConfig columnConfig : columnConfigs) {
-            final ConfigSource columnConfigSource = columnConfig.getConfigSource();
-            if (columnConfig.getName().equals(column.getName())
-                    && columnConfigSource != null
-                    && columnConfigSource.has("format")) {
-                pattern = columnConfigSource.get(String.class, "format");
-                break;
-            }
-        }
-        final TimestampFormatter formatter = TimestampFormatter
-                .builder(pattern, true)
-                .setDefaultZoneFromString("UTC")
-                .build();
-        try {
-            return formatter.parse(value);
-        }
-        catch (final Exception e) {
+        final JsonPrimitive primitive = getPrimitive(value);
+        if (primitive == null || primitive.isBoolean()) {
             return null;
         }
+        final String text = primitive.getAsString();
+        final Long parsed = parseLong(text);
+        if (parsed != null || !primitive.isNumber()) {
+            return parsed;
+        }
+        // A number with a fraction, an exponent or out of the long range is truncated like Gson does
+        return isDecimal(text) ? new BigDecimal(text).longValue() : primitive.getAsNumber().longValue();
     }
 
     /*
-     * For getting the Long value of the node
-     * Sometime if error occurs (i.e a JSON value but user modified it as long) then return null
+     * For getting the Double value of the node, null if it cannot be coerced (i.e a JSON value but user modified it as double)
      * */
-    private static Long getLongValue(final JsonElement value)
+    static Double getDoubleValue(final JsonElement value)
     {
-        try {
-            return value.getAsLong();
-        }
-        catch (final Exception e) {
+        final JsonPrimitive primitive = getPrimitive(value);
+        if (primitive == null || primitive.isBoolean()) {
             return null;
         }
+        if (primitive.isNumber()) {
+            return primitive.getAsNumber().doubleValue();
+        }
+        final String text = primitive.getAsString();
+        return isDecimal(text) ? Double.parseDouble(text) : null;
     }
 
     /*
-     * For getting the Double value of the node
-     * Sometime if error occurs (i.e a JSON value but user modified it as double) then return null
+     * For getting the Boolean value of the node, null if it cannot be coerced (i.e a JSON value but user modified it as boolean)
      * */
-    private static Double getDoubleValue(final JsonElement value)
+    static Boolean getBooleanValue(final JsonElement value)
     {
-        try {
-            return value.getAsDouble();
-        }
-        catch (final Exception e) {
+        final JsonPrimitive primitive = getPrimitive(value);
+        if (primitive == null) {
             return null;
         }
+        return primitive.isBoolean() ? primitive.getAsBoolean() : Boolean.valueOf(primitive.getAsString());
     }
 
     /*
-     * For getting the Boolean value of the node
-     * Sometime if error occurs (i.e a JSON value but user modified it as boolean) then return null
+     * The primitive value of the node, or of its only element for an array of one element as Gson does, null otherwise
      * */
-    private static Boolean getBooleanValue(final JsonElement value)
+    private static JsonPrimitive getPrimitive(final JsonElement value)
     {
-        try {
-            return value.getAsBoolean();
-        }
-        catch (final Exception e) {
-            return null;
+        if (value.isJsonArray() && value.getAsJsonArray().size() == 1) {
+            return getPrimitive(value.getAsJsonArray().get(0));
         }
+        return value.isJsonPrimitive() ? value.getAsJsonPrimitive() : null;
     }
 
-    public static void addRecord(final Issue issue, final Schema schema, final PluginTask task, final PageBuilder pageBuilder)
+    /*
+     * Same as Long.parseLong but null instead of an exception when the text is not a long
+     * */
+    private static Long parseLong(final String text)
     {
-        schema.visitColumns(new ColumnVisitor() {
-            @Override
-            public void jsonColumn(final Column column)
-            {
-                final JsonElement data = issue.getValue(column.getName());
-                if (data.isJsonNull() || data.isJsonPrimitive()) {
-                    pageBuilder.setNull(column);
-                }
-                else {
-                    pageBuilder.setJson(column, new JsonParser().parse(data.toString()));
-                }
+        final int length = text.length();
+        final boolean negative = length > 0 && text.charAt(0) == '-';
+        int i = length > 0 && (negative || text.charAt(0) == '+') ? 1 : 0;
+        if (i == length) {
+            return null;
+        }
+        // Accumulate negatively to reach Long.MIN_VALUE
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (; i < length; i++) {
+            final int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                return null;
             }
-
-            @Override
-            public void stringColumn(final Column column)
-            {
-                final JsonElement data = issue.getValue(column.getName());
-                if (data.isJsonNull()) {
-                    pageBuilder.setNull(column);
-                }
-                else if (data.isJsonPrimitive()) {
-                    pageBuilder.setString(column, data.getAsString());
-                }
-                else if (data.isJsonArray()) {
-                    pageBuilder.setString(column, StreamSupport.stream(data.getAsJsonArray().spliterator(), false)
-                            .map(obj -> {
-                                if (obj.isJsonPrimitive()) {
-                                    return obj.getAsString();
-                                }
-                                return obj.toString();
-                            })
-                            .collect(Collectors.joining(",")));
-                }
-                else {
-                    pageBuilder.setString(column, data.toString());
-                }
+            result *= 10;
+            if (result < limit + digit) {
+                return null;
             }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
 
-            @Override
-            public void timestampColumn(final Column column)
-            {
-                final JsonElement data = issue.getValue(column.getName());
-                if (data.isJsonNull() || data.isJsonObject() || data.isJsonArray()) {
-                    pageBuilder.setNull(column);
-                }
-                else {
-                    final Instant value = getTimestampValue(task, column, data.getAsString());
-                    if (value == null) {
-                        pageBuilder.setNull(column);
-                    }
-                    else {
-                        pageBuilder.setTimestamp(column, value);
-                    }
-                }
+    /*
+     * Whether the text is a decimal number (i.e -1, 1.5 or 1e-3) parsed by Double.parseDouble and BigDecimal without an exception
+     * */
+    private static boolean isDecimal(final String text)
+    {
+        final int length = text.length();
+        int i = length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+        int digits = 0;
+        while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+            digits++;
+        }
+        if (i < length && text.charAt(i) == '.') {
+            i++;
+            while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                i++;
+                digits++;
             }
-
-            @Override
-            public void booleanColumn(final Column column)
-            {
-                final Boolean value = getBooleanValue(issue.getValue(column.getName()));
-                if (value == null) {
-                    pageBuilder.setNull(column);
-                }
-                else {
-                    pageBuilder.setBoolean(column, value);
-                }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+                i++;
             }
-
-            @Override
-            public void longColumn(final Column column)
-            {
-                final Long value = getLongValue(issue.getValue(column.getName()));
-                if (value == null) {
-                    pageBuilder.setNull(column);
-                }
-                else {
-                    pageBuilder.setLong(column, value);
-                }
+            final int exponentStart = i;
+            while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                i++;
             }
-
-            @Override
-            public void doubleColumn(final Column column)
-            {
-                final Double value = getDoubleValue(issue.getValue(column.getName()));
-                if (value == null) {
-                    pageBuilder.setNull(column);
-                }
-                else {
-                    pageBuilder.setDouble(column, value);
-                }
+            if (i == exponentStart) {
+                return false;
             }
-        });
-        pageBuilder.addRecord();
+        }
+        return i == length;
+    }
+
+    /*
+     * The schema of the raw output mode: the issue as a JSON column, after its id, key and updated time if metadata is set
+     * */
+    public static Schema createRawSchema(final boolean metadata)
+    {
+        final Schema.Builder builder = Schema.builder();
+        if (metadata) {
+            builder.add("id", Types.STRING)
+                    .add("key", Types.STRING)
+                    .add("updated", Types.TIMESTAMP);
+        }
+        return builder.add(RAW_ISSUE_COLUMN, Types.JSON).build();
     }
 
     public static LinkedHashMap<String, Object> toLinkedHashMap(final JsonObject flt)
@@ -0,0 +1,130 @@
+package org.embulk.input.jira.util;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+/*
+ * Convert the Gson elements, or the JSON values of a Gson token stream, to the msgpack values of the JSON columns,
+ * walking the element tree or the tokens once instead of printing them and parsing the text back
+ * */
+public final class JsonValues
+{
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private JsonValues()
+    {
+    }
+
+    public static Value toValue(final JsonElement element)
+    {
+        if (element == null || element.isJsonNull()) {
+            return ValueFactory.newNil();
+        }
+        if (element.isJsonObject()) {
+            final JsonObject object = element.getAsJsonObject();
+            final Value[] keyValues = new Value[object.size() * 2];
+            int i = 0;
+            for (final Entry<String, JsonElement> entry : object.entrySet()) {
+                keyValues[i++] = ValueFactory.newString(entry.getKey());
+                keyValues[i++] = toValue(entry.getValue());
+            }
+            return ValueFactory.newMap(keyValues);
+        }
+        if (element.isJsonArray()) {
+            final JsonArray array = element.getAsJsonArray();
+            final Value[] values = new Value[array.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toValue(array.get(i));
+            }
+            return ValueFactory.newArray(values);
+        }
+        final JsonPrimitive primitive = element.getAsJsonPrimitive();
+        if (primitive.isBoolean()) {
+            return ValueFactory.newBoolean(primitive.getAsBoolean());
+        }
+        if (primitive.isNumber()) {
+            return toNumberValue(primitive.getAsString());
+        }
+        return ValueFactory.newString(primitive.getAsString());
+    }
+
+    /*
+     * The value at the position of the reader, with the same typing as toValue
+     * */
+    public static Value read(final JsonReader reader) throws IOException
+    {
+        switch (reader.peek()) {
+        case BEGIN_OBJECT:
+            final List<Value> keyValues = new ArrayList<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                keyValues.add(ValueFactory.newString(reader.nextName()));
+                keyValues.add(read(reader));
+            }
+            reader.endObject();
+            return ValueFactory.newMap(keyValues.toArray(new Value[0]));
+        case BEGIN_ARRAY:
+            final List<Value> values = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                values.add(read(reader));
+            }
+            reader.endArray();
+            return ValueFactory.newArray(values.toArray(new Value[0]));
+        case STRING:
+            return ValueFactory.newString(reader.nextString());
+        case NUMBER:
+            // The literal as written in the JSON text
+            return toNumberValue(reader.nextString());
+        case BOOLEAN:
+            return ValueFactory.newBoolean(reader.nextBoolean());
+        case NULL:
+            reader.nextNull();
+            return ValueFactory.newNil();
+        default:
+            throw new IllegalStateException(String.format("Unexpected token %s", reader.peek()));
+        }
+    }
+
+    /*
+     * Same typing as the JSON text parser: integral literals are integers, the others are floats
+     * */
+    private static Value toNumberValue(final String number)
+    {
+        if (!isIntegral(number)) {
+            return ValueFactory.newFloat(Double.parseDouble(number));
+        }
+        // Up to 18 digits always fits in a long
+        if (number.length() <= 18) {
+            return ValueFactory.newInteger(Long.parseLong(number));
+        }
+        final BigInteger value = new BigInteger(number);
+        if (value.compareTo(MIN_LONG) >= 0 && value.compareTo(MAX_LONG) <= 0) {
+            return ValueFactory.newInteger(value.longValue());
+        }
+        return ValueFactory.newInteger(value);
+    }
+
+    private static boolean isIntegral(final String number)
+    {
+        for (int i = 0; i < number.length(); i++) {
+            final char c = number.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
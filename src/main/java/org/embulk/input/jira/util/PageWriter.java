@@ -0,0 +1,104 @@
+package org.embulk.input.jira.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.embulk.input.jira.Issue;
+import org.embulk.spi.PageBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Write the pages of issues with the record writer.
+ * With conversionThreads greater than 1, the issues of a page are split into chunks converted to record values
+ * by a pool of threads, while the calling thread, the only one touching the page builder, writes the chunks in order
+ * as soon as they are converted. Otherwise the issues are converted and written by the calling thread.
+ * */
+public class PageWriter implements AutoCloseable
+{
+    private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
+            .setNameFormat("embulk-input-jira-converter-%d")
+            .setDaemon(true)
+            .build();
+    // Smaller chunks than one per thread so the first chunk is written while the others are still converted
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    private final RecordWriter recordWriter;
+    private final int conversionThreads;
+    private final ExecutorService executor;
+
+    public PageWriter(final RecordWriter recordWriter, final int conversionThreads)
+    {
+        this.recordWriter = recordWriter;
+        this.conversionThreads = conversionThreads;
+        this.executor = conversionThreads > 1 ? Executors.newFixedThreadPool(conversionThreads, THREAD_FACTORY) : null;
+    }
+
+    public void write(final List<Issue> issues, final PageBuilder pageBuilder)
+    {
+        if (executor == null || issues.size() < 2) {
+            for (final Issue issue : issues) {
+                recordWriter.addRecord(issue, pageBuilder);
+            }
+            return;
+        }
+        final int chunkSize = Math.max(1, (issues.size() + conversionThreads * CHUNKS_PER_THREAD - 1) / (conversionThreads * CHUNKS_PER_THREAD));
+        final List<Future<Object[][]>> chunks = new ArrayList<>();
+        for (int from = 0; from < issues.size(); from += chunkSize) {
+            final List<Issue> chunk = issues.subList(from, Math.min(from + chunkSize, issues.size()));
+            chunks.add(executor.submit(() -> convert(chunk)));
+        }
+        try {
+            for (final Future<Object[][]> chunk : chunks) {
+                for (final Object[] values : await(chunk)) {
+                    recordWriter.write(values, pageBuilder);
+                }
+            }
+        }
+        finally {
+            // Nothing left to cancel unless a chunk failed
+            chunks.forEach(chunk -> chunk.cancel(true));
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private Object[][] convert(final List<Issue> issues)
+    {
+        final Object[][] records = new Object[issues.size()][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = recordWriter.convert(issues.get(i));
+        }
+        return records;
+    }
+
+    private static Object[][] await(final Future<Object[][]> chunk)
+    {
+        try {
+            return chunk.get();
+        }
+        catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
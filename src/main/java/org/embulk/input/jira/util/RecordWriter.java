@@ -0,0 +1,243 @@
+package org.embulk.input.jira.util;
+
+import com.google.gson.JsonElement;
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.IssuePath;
+import org.embulk.input.jira.IssuePathTrie;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.spi.Column;
+import org.embulk.spi.ColumnVisitor;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.msgpack.value.Value;
+
+import java.time.Instant;
+
+import static org.embulk.input.jira.Constant.DEFAULT_TIMESTAMP_PATTERN;
+
+/*
+ * Write the issues as records of the schema.
+ * The converter and the setter of each column are resolved once from its type and timestamp format,
+ * and the paths of the columns are compiled into a trie, so writing an issue is one walk of the issue
+ * and a loop over the columns without visiting the schema again.
+ * The conversion of an issue to the values of its record (convert) does not touch the page builder
+ * and can run in any thread, the values are then written by the thread owning the page builder (write).
+ * */
+public class RecordWriter
+{
+    private final Column[] columns;
+    private final IssuePathTrie paths;
+    private final ColumnConverter[] converters;
+    private final ValueSetter[] setters;
+
+    /*
+     * The values of the columns are read through paths, the trie of the paths of the columns possibly followed by other paths
+     * */
+    public RecordWriter(final Schema schema, final IssuePathTrie paths, final TimestampParser[] timestampParsers, final CoercionFailures coercionFailures)
+    {
+        this.columns = schema.getColumns().toArray(new Column[0]);
+        this.paths = paths;
+        this.converters = new ColumnConverter[columns.length];
+        this.setters = new ValueSetter[columns.length];
+        schema.visitColumns(new ColumnVisitor() {
+            @Override
+            public void jsonColumn(final Column column)
+            {
+                converters[column.getIndex()] = RecordWriter::jsonValue;
+                setters[column.getIndex()] = (pageBuilder, value) -> pageBuilder.setJson(column, (Value) value);
+            }
+
+            @Override
+            public void stringColumn(final Column column)
+            {
+                converters[column.getIndex()] = RecordWriter::stringValue;
+                setters[column.getIndex()] = (pageBuilder, value) -> pageBuilder.setString(column, (String) value);
+            }
+
+            @Override
+            public void timestampColumn(final Column column)
+            {
+                converters[column.getIndex()] = timestampConverter(column, timestampParsers[column.getIndex()], coercionFailures);
+                setters[column.getIndex()] = (pageBuilder, value) -> pageBuilder.setTimestamp(column, (Instant) value);
+            }
+
+            @Override
+            public void booleanColumn(final Column column)
+            {
+                converters[column.getIndex()] = booleanConverter(column, coercionFailures);
+                setters[column.getIndex()] = (pageBuilder, value) -> pageBuilder.setBoolean(column, (Boolean) value);
+            }
+
+            @Override
+            public void longColumn(final Column column)
+            {
+                converters[column.getIndex()] = longConverter(column, coercionFailures);
+                setters[column.getIndex()] = (pageBuilder, value) -> pageBuilder.setLong(column, (Long) value);
+            }
+
+            @Override
+            public void doubleColumn(final Column column)
+            {
+                converters[column.getIndex()] = doubleConverter(column, coercionFailures);
+                setters[column.getIndex()] = (pageBuilder, value) -> pageBuilder.setDouble(column, (Double) value);
+            }
+        });
+    }
+
+    /*
+     * The writer of the schema, with the paths and timestamp parsers of its columns
+     * */
+    public static RecordWriter compile(final PluginTask task, final Schema schema, final CoercionFailures coercionFailures)
+    {
+        return compile(task, schema, IssuePathTrie.compile(IssuePath.compile(schema)), coercionFailures);
+    }
+
+    /*
+     * The writer of the schema sharing the trie of the paths, i.e with the response reader
+     * */
+    public static RecordWriter compile(final PluginTask task, final Schema schema, final IssuePathTrie paths, final CoercionFailures coercionFailures)
+    {
+        return new RecordWriter(schema, paths, TimestampParser.compile(task, schema), coercionFailures);
+    }
+
+    /*
+     * The writer of the raw output mode schema (see JiraUtil.createRawSchema): the issue column is the value of the issue
+     * built by the response reader, the metadata columns are read like the other columns with the JIRA timestamp format
+     * */
+    public static RecordWriter compileRaw(final Schema schema, final CoercionFailures coercionFailures)
+    {
+        final TimestampParser[] timestampParsers = new TimestampParser[schema.getColumnCount()];
+        for (int i = 0; i < timestampParsers.length; i++) {
+            if (schema.getColumnType(i).equals(Types.TIMESTAMP)) {
+                timestampParsers[i] = TimestampParser.of(DEFAULT_TIMESTAMP_PATTERN);
+            }
+        }
+        final RecordWriter writer = new RecordWriter(schema, IssuePathTrie.compile(IssuePath.compile(schema)), timestampParsers, coercionFailures);
+        for (final Column column : writer.columns) {
+            if (column.getName().equals(JiraUtil.RAW_ISSUE_COLUMN)) {
+                writer.converters[column.getIndex()] = (issue, data) -> issue.getRaw();
+            }
+        }
+        return writer;
+    }
+
+    public void addRecord(final Issue issue, final PageBuilder pageBuilder)
+    {
+        final JsonElement[] data = issue.getValues(paths);
+        for (int i = 0; i < columns.length; i++) {
+            set(i, converters[i].convert(issue, data[i]), pageBuilder);
+        }
+        pageBuilder.addRecord();
+    }
+
+    /*
+     * The values of the record of the issue indexed by column index, null for the null values
+     * */
+    public Object[] convert(final Issue issue)
+    {
+        final JsonElement[] data = issue.getValues(paths);
+        final Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = converters[i].convert(issue, data[i]);
+        }
+        return values;
+    }
+
+    /*
+     * Add the record of the values returned by convert
+     * */
+    public void write(final Object[] values, final PageBuilder pageBuilder)
+    {
+        for (int i = 0; i < columns.length; i++) {
+            set(i, values[i], pageBuilder);
+        }
+        pageBuilder.addRecord();
+    }
+
+    private void set(final int index, final Object value, final PageBuilder pageBuilder)
+    {
+        if (value == null) {
+            pageBuilder.setNull(columns[index]);
+        }
+        else {
+            setters[index].set(pageBuilder, value);
+        }
+    }
+
+    private static Object jsonValue(final Issue issue, final JsonElement data)
+    {
+        if (data.isJsonNull() || data.isJsonPrimitive()) {
+            return null;
+        }
+        return JsonValues.toValue(data);
+    }
+
+    private static Object stringValue(final Issue issue, final JsonElement data)
+    {
+        if (data.isJsonNull()) {
+            return null;
+        }
+        else if (data.isJsonPrimitive()) {
+            return data.getAsString();
+        }
+        else if (data.isJsonArray()) {
+            final StringBuilder builder = new StringBuilder();
+            for (final JsonElement elem : data.getAsJsonArray()) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(elem.isJsonPrimitive() ? elem.getAsString() : elem.toString());
+            }
+            return builder.toString();
+        }
+        return data.toString();
+    }
+
+    private static ColumnConverter timestampConverter(final Column column, final TimestampParser parser, final CoercionFailures coercionFailures)
+    {
+        return (issue, data) -> {
+            final Instant value = data.isJsonPrimitive() ? parser.parse(data.getAsString()) : null;
+            return checkCoerced(column, data, value, coercionFailures);
+        };
+    }
+
+    private static ColumnConverter booleanConverter(final Column column, final CoercionFailures coercionFailures)
+    {
+        return (issue, data) -> checkCoerced(column, data, JiraUtil.getBooleanValue(data), coercionFailures);
+    }
+
+    private static ColumnConverter longConverter(final Column column, final CoercionFailures coercionFailures)
+    {
+        return (issue, data) -> checkCoerced(column, data, JiraUtil.getLongValue(data), coercionFailures);
+    }
+
+    private static ColumnConverter doubleConverter(final Column column, final CoercionFailures coercionFailures)
+    {
+        return (issue, data) -> checkCoerced(column, data, JiraUtil.getDoubleValue(data), coercionFailures);
+    }
+
+    /*
+     * A value which is present but cannot be coerced to the column type is counted as a failure
+     * */
+    private static Object checkCoerced(final Column column, final JsonElement data, final Object value, final CoercionFailures coercionFailures)
+    {
+        if (value == null && !data.isJsonNull()) {
+            coercionFailures.increment(column);
+        }
+        return value;
+    }
+
+    /*
+     * Convert the value at the path of the column in the issue
+     * */
+    private interface ColumnConverter
+    {
+        Object convert(Issue issue, JsonElement data);
+    }
+
+    private interface ValueSetter
+    {
+        void set(PageBuilder pageBuilder, Object value);
+    }
+}
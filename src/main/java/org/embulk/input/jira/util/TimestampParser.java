@@ -0,0 +1,135 @@
+package org.embulk.input.jira.util;
+
+import org.embulk.config.ConfigSource;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.embulk.util.config.units.ColumnConfig;
+import org.embulk.util.timestamp.TimestampFormatter;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.embulk.input.jira.Constant.DEFAULT_TIMESTAMP_PATTERN;
+
+/*
+ * Parse the values of a timestamp column, resolved once per column from its format.
+ * The default format, the one of the JIRA date time fields (i.e 2019-01-01T00:00:00.000+0000), is parsed by hand,
+ * the values not having exactly this shape go through the generic formatter.
+ * */
+public class TimestampParser
+{
+    private static final int JIRA_TIMESTAMP_LENGTH = "2019-01-01T00:00:00.000+0000".length();
+
+    private final TimestampFormatter formatter;
+    private final boolean jiraFormat;
+
+    private TimestampParser(final String pattern)
+    {
+        this.formatter = TimestampFormatter
+                .builder(pattern, true)
+                .setDefaultZoneFromString("UTC")
+                .build();
+        this.jiraFormat = pattern.equals(DEFAULT_TIMESTAMP_PATTERN);
+    }
+
+    public static TimestampParser of(final String pattern)
+    {
+        return new TimestampParser(pattern);
+    }
+
+    /*
+     * The parsers of the timestamp columns of the schema indexed by column index, null for the other columns
+     * */
+    public static TimestampParser[] compile(final PluginTask task, final Schema schema)
+    {
+        final Map<String, String> patterns = new HashMap<>();
+        for (final ColumnConfig columnConfig : task.getColumns().getColumns()) {
+            final ConfigSource columnConfigSource = columnConfig.getConfigSource();
+            if (columnConfigSource != null && columnConfigSource.has("format")) {
+                patterns.putIfAbsent(columnConfig.getName(), columnConfigSource.get(String.class, "format"));
+            }
+        }
+        final TimestampParser[] parsers = new TimestampParser[schema.getColumnCount()];
+        for (int i = 0; i < parsers.length; i++) {
+            if (schema.getColumnType(i).equals(Types.TIMESTAMP)) {
+                parsers[i] = of(patterns.getOrDefault(schema.getColumnName(i), DEFAULT_TIMESTAMP_PATTERN));
+            }
+        }
+        return parsers;
+    }
+
+    /*
+     * Sometime if the parser could not parse the value then return null
+     * */
+    public Instant parse(final String value)
+    {
+        if (jiraFormat) {
+            final Instant instant = parseJiraTimestamp(value);
+            if (instant != null) {
+                return instant;
+            }
+        }
+        try {
+            return formatter.parse(value);
+        }
+        catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /*
+     * uuuu-MM-dd'T'HH:mm:ss.SSS followed by a +hhmm or -hhmm offset, null for any other shape
+     * */
+    private static Instant parseJiraTimestamp(final String value)
+    {
+        if (value.length() != JIRA_TIMESTAMP_LENGTH
+                || value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || value.charAt(16) != ':' || value.charAt(19) != '.'
+                || (value.charAt(23) != '+' && value.charAt(23) != '-')) {
+            return null;
+        }
+        final int year = digits(value, 0, 4);
+        final int month = digits(value, 5, 2);
+        final int day = digits(value, 8, 2);
+        final int hour = digits(value, 11, 2);
+        final int minute = digits(value, 14, 2);
+        final int second = digits(value, 17, 2);
+        final int millis = digits(value, 20, 3);
+        final int offsetHours = digits(value, 24, 2);
+        final int offsetMinutes = digits(value, 26, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59
+                || millis < 0 || offsetHours < 0 || offsetHours > 18 || offsetMinutes < 0 || offsetMinutes > 59) {
+            return null;
+        }
+        final long epochDay;
+        try {
+            epochDay = LocalDate.of(year, month, day).toEpochDay();
+        }
+        catch (final DateTimeException e) {
+            return null;
+        }
+        final int offsetSeconds = (offsetHours * 60 + offsetMinutes) * 60 * (value.charAt(23) == '-' ? -1 : 1);
+        final long epochSecond = epochDay * 86400 + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return Instant.ofEpochSecond(epochSecond, millis * 1000000L);
+    }
+
+    /*
+     * The decimal number written with length digits from start, -1 if a character is not a digit
+     * */
+    private static int digits(final String value, final int start, final int length)
+    {
+        int number = 0;
+        for (int i = start; i < start + length; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
@@ -7,8 +7,13 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class IssueTest
 {
@@ -106,6 +111,41 @@ public class IssueTest
         assertEquals(expected, issue.getFlatten());
     }
 
+    @Test
+    public void test_toRecord_parallel()
+    {
+        List<Issue> issues = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> entry : flattenData.entrySet()) {
+            for (int i = 0; i < 10; i++) {
+                issues.add(new Issue(entry.getValue().getAsJsonObject()));
+            }
+        }
+        List<JsonObject> flattens = issues.parallelStream().map(Issue::getFlatten).collect(Collectors.toList());
+        int index = 0;
+        for (Map.Entry<String, JsonElement> entry : flattenData.entrySet()) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(flattenExpected.get(entry.getKey()), flattens.get(index++));
+            }
+        }
+    }
+
+    @Test
+    public void test_toRecord_deepArrayOfObjects()
+    {
+        // The arrays of objects are flattened as the arrays of their values by key,
+        // reduced to their name, key and id or to their text deeper than two levels
+        Issue issue = new Issue(new com.google.gson.JsonParser().parse(
+                "{\"fields\":{\"components\":[{\"id\":\"1\",\"name\":\"API\"},{\"id\":\"2\"}]},"
+                + "\"a\":{\"b\":{\"c\":[{\"x\":1},{\"y\":2}]}},"
+                + "\"p\":{\"q\":{\"r\":[{\"id\":1,\"s\":{\"name\":\"n\"}},{\"id\":2}]}}}").getAsJsonObject());
+        JsonObject flatten = issue.getFlatten();
+        assertEquals(4, flatten.size());
+        assertEquals("String value", flatten.get("fields.components.id").getAsString());
+        assertEquals("String value", flatten.get("fields.components.name").getAsString());
+        assertEquals("{\"x\":[1,null],\"y\":[null,2]}", flatten.get("a.b.c").getAsString());
+        assertEquals("[1,2]", flatten.get("p.q.r.id").toString());
+    }
+
     @Test
     public void test_getValue_primitive()
     {
@@ -275,4 +315,60 @@ public class IssueTest
         JsonElement expected = issueGetExpected.get(testName + "Result");
         assertEquals(expected, issue.getValue(path));
     }
+
+    @Test
+    public void test_getValue_compiledPath()
+    {
+        Issue issue = new Issue(issueGet);
+        for (Map.Entry<String, JsonElement> entry : issueGetExpected.entrySet()) {
+            if (issueGetExpected.has(entry.getKey() + "Result")) {
+                IssuePath path = IssuePath.of(entry.getValue().getAsString());
+                assertEquals(issueGetExpected.get(entry.getKey() + "Result"), issue.getValue(path));
+                // The same path is looked up again
+                assertEquals(issueGetExpected.get(entry.getKey() + "Result"), issue.getValue(path));
+            }
+        }
+    }
+
+    @Test
+    public void test_getValues_trie()
+    {
+        Issue issue = new Issue(issueGet);
+        List<IssuePath> paths = new ArrayList<>();
+        for (Map.Entry<String, JsonElement> entry : issueGetExpected.entrySet()) {
+            if (issueGetExpected.has(entry.getKey() + "Result")) {
+                paths.add(IssuePath.of(entry.getValue().getAsString()));
+            }
+        }
+        // Paths below an empty array or a null value, and the same path twice
+        paths.add(IssuePath.of("emptyArray.key"));
+        paths.add(IssuePath.of("null.key.key"));
+        paths.add(IssuePath.of("nested.primitive"));
+        IssuePath[] compiled = paths.toArray(new IssuePath[0]);
+        JsonElement[] values = issue.getValues(IssuePathTrie.compile(compiled));
+        assertEquals(compiled.length, values.length);
+        for (int i = 0; i < compiled.length; i++) {
+            assertEquals(compiled[i].toString(), issue.getValue(compiled[i]), values[i]);
+        }
+    }
+
+    @Test
+    public void test_withFields()
+    {
+        JsonObject json = new com.google.gson.JsonParser().parse(
+                "{\"id\":\"1\",\"key\":\"EX-1\",\"summary\":\"hidden\","
+                + "\"fields\":{\"summary\":\"text\",\"status\":{\"name\":\"Open\"},\"labels\":[]}}").getAsJsonObject();
+        Issue issue = Issue.withFields(json);
+        assertEquals("1", issue.getValue("id").getAsString());
+        assertEquals("text", issue.getValue("summary").getAsString());
+        assertEquals("Open", issue.getValue("status.name").getAsString());
+        assertTrue(issue.getValue("fields").isJsonNull());
+        // Flattened as the issue having its fields merged
+        JsonObject merged = new com.google.gson.JsonParser().parse(
+                "{\"id\":\"1\",\"key\":\"EX-1\",\"summary\":\"text\",\"status\":{\"name\":\"Open\"},\"labels\":[]}").getAsJsonObject();
+        assertEquals(new Issue(merged).getFlatten(), issue.getFlatten());
+        assertEquals(new ArrayList<>(new Issue(merged).getFlatten().keySet()), new ArrayList<>(issue.getFlatten().keySet()));
+        // The issue is not modified
+        assertTrue(json.has("fields"));
+    }
 }
@@ -5,11 +5,14 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigDiff;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
@@ -26,10 +29,17 @@ import org.mockito.Mockito;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import static org.embulk.input.jira.Constant.GUESS_RECORDS_COUNT;
 import static org.embulk.input.jira.JiraInputPlugin.CONFIG_MAPPER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -63,7 +73,7 @@ public class JiraInputPluginTest
             pageBuilder = Mockito.mock(PageBuilder.class);
         }
         when(plugin.getJiraClient()).thenReturn(jiraClient);
-        when(jiraClient.createHttpClient()).thenReturn(client);
+        doReturn(client).when(jiraClient).getHttpClient(Mockito.any());
         when(client.execute(Mockito.any(HttpUriRequest.class))).thenReturn(response);
         when(response.getStatusLine()).thenReturn(statusLine);
         doReturn(pageBuilder).when(plugin).getPageBuilder(Mockito.any(), Mockito.any());
@@ -83,8 +93,8 @@ public class JiraInputPluginTest
                 .thenReturn(new StringEntity(searchResponse.get("body").toString()));
 
         plugin.transaction(config, new Control());
-        // Check credential 1 + getTotal 1 + loadData 0
-        verify(jiraClient, times(2)).createHttpClient();
+        // Check credential 1 + loadData 1 (the first page gives the total)
+        verify(jiraClient, times(2)).getHttpClient(Mockito.any());
         verify(pageBuilder, times(0)).addRecord();
         verify(pageBuilder, times(1)).finish();
     }
@@ -117,8 +127,8 @@ public class JiraInputPluginTest
                 .thenReturn(new StringEntity(searchResponse.get("body").toString()));
 
         plugin.transaction(TestHelpers.dynamicSchemaConfig(), new Control());
-        // Check credential 1 + getTotal 1 + loadData 2
-        verify(jiraClient, times(4)).createHttpClient();
+        // Guess 1 + Check credential 1 + loadData 1
+        verify(jiraClient, times(3)).getHttpClient(Mockito.any());
         verify(pageBuilder, times(1)).addRecord();
         verify(pageBuilder, times(1)).finish();
     }
@@ -137,8 +147,8 @@ public class JiraInputPluginTest
                 .thenReturn(new StringEntity(searchResponse.get("body").toString()));
 
         plugin.transaction(config, new Control());
-        // Check credential 1 + getTotal 1 + loadData 1
-        verify(jiraClient, times(3)).createHttpClient();
+        // Check credential 1 + loadData 1
+        verify(jiraClient, times(2)).getHttpClient(Mockito.any());
         verify(pageBuilder, times(1)).addRecord();
         verify(pageBuilder, times(1)).finish();
     }
@@ -157,12 +167,124 @@ public class JiraInputPluginTest
                 .thenReturn(new StringEntity(searchResponse.get("body").toString()));
 
         plugin.transaction(config, new Control());
-        // Check credential 1 + getTotal 1 + loadData 2
-        verify(jiraClient, times(4)).createHttpClient();
+        // Check credential 1 + loadData 2
+        verify(jiraClient, times(3)).getHttpClient(Mockito.any());
+        verify(pageBuilder, times(2)).addRecord();
+        verify(pageBuilder, times(1)).finish();
+    }
+
+    @Test
+    public void test_run_with2PagesResult_withoutPrefetch() throws IOException
+    {
+        final JsonObject authorizeResponse = data.get("authenticateSuccess").getAsJsonObject();
+        final JsonObject searchResponse = data.get("2PagesResult").getAsJsonObject();
+
+        when(statusLine.getStatusCode())
+                .thenReturn(authorizeResponse.get("statusCode").getAsInt())
+                .thenReturn(searchResponse.get("statusCode").getAsInt());
+        when(response.getEntity())
+                .thenReturn(new StringEntity(authorizeResponse.get("body").toString()))
+                .thenReturn(new StringEntity(searchResponse.get("body").toString()));
+
+        plugin.transaction(TestHelpers.config().set("prefetch_pages", 0), new Control());
+        // Check credential 1 + loadData 2
+        verify(jiraClient, times(3)).getHttpClient(Mockito.any());
         verify(pageBuilder, times(2)).addRecord();
         verify(pageBuilder, times(1)).finish();
     }
 
+    @Test
+    public void test_run_with2PagesResultIn2Tasks() throws IOException
+    {
+        final JsonObject searchResponse = data.get("2PagesResult").getAsJsonObject();
+
+        when(statusLine.getStatusCode())
+                .thenReturn(searchResponse.get("statusCode").getAsInt());
+        when(response.getEntity())
+                .thenReturn(new StringEntity(searchResponse.get("body").toString()));
+
+        final Control control = new Control();
+        plugin.transaction(TestHelpers.config().set("task_count", 2), control);
+        // getTotal 1 + (Check credential 1 + loadData 1) + (Check credential 1 + loadData 1)
+        verify(jiraClient, times(5)).getHttpClient(Mockito.any());
+        verify(pageBuilder, times(2)).addRecord();
+        verify(pageBuilder, times(2)).finish();
+        assertEquals(2, control.taskReports.size());
+        assertEquals(0, (int) control.taskReports.get(0).get(Integer.class, "start_at"));
+        assertEquals(50, (int) control.taskReports.get(0).get(Integer.class, "end_at"));
+        assertEquals(1L, (long) control.taskReports.get(0).get(Long.class, "records"));
+        assertEquals(50, (int) control.taskReports.get(1).get(Integer.class, "start_at"));
+        assertEquals(-1, (int) control.taskReports.get(1).get(Integer.class, "end_at"));
+    }
+
+    @Test
+    public void test_transaction_invalidPartitionWindow()
+    {
+        final ConfigException exception = assertThrows(ConfigException.class, () -> plugin.transaction(TestHelpers.config()
+                .set("task_count", 2)
+                .set("partition_method", "updated")
+                .set("partition_window_hours", 0), new Control()));
+        assertEquals("Partition window hours should be equal or greater than 1", exception.getMessage());
+        // Rejected before the partitions are created
+        verify(jiraClient, times(0)).getHttpClient(Mockito.any());
+    }
+
+    @Test
+    public void test_transaction_invalidPageSize()
+    {
+        final ConfigException exception = assertThrows(ConfigException.class, () -> plugin.transaction(TestHelpers.config()
+                .set("task_count", 2)
+                .set("page_size", 0), new Control()));
+        assertEquals("Page size should be equal or greater than 1", exception.getMessage());
+        // Rejected before the issues are counted
+        verify(jiraClient, times(0)).getHttpClient(Mockito.any());
+    }
+
+    @Test
+    public void test_transaction_missingColumns()
+    {
+        final ConfigException exception = assertThrows(ConfigException.class, () -> plugin.transaction(TestHelpers.config()
+                .remove("columns"), new Control()));
+        assertEquals("Columns could not be empty unless output_mode is raw or dynamic_schema is true", exception.getMessage());
+        verify(jiraClient, times(0)).getHttpClient(Mockito.any());
+    }
+
+    @Test
+    public void test_transaction_tokenPaginationWithOffsetPartitions()
+    {
+        final ConfigException exception = assertThrows(ConfigException.class, () -> plugin.transaction(TestHelpers.config()
+                .set("task_count", 2)
+                .set("pagination_method", "token"), new Control()));
+        assertEquals("Token pagination cannot split the issues by offset, use partition method id, updated or created", exception.getMessage());
+        // Rejected before the issues are counted
+        verify(jiraClient, times(0)).getHttpClient(Mockito.any());
+        verify(jiraClient, times(0)).checkEndpoint(Mockito.any());
+    }
+
+    @Test
+    public void test_run_incremental() throws IOException
+    {
+        final JsonObject authorizeResponse = data.get("authenticateSuccess").getAsJsonObject();
+        final JsonObject searchResponse = data.get("incrementalResult").getAsJsonObject();
+
+        when(statusLine.getStatusCode())
+                .thenReturn(authorizeResponse.get("statusCode").getAsInt())
+                .thenReturn(authorizeResponse.get("statusCode").getAsInt())
+                .thenReturn(searchResponse.get("statusCode").getAsInt());
+        when(response.getEntity())
+                .thenReturn(new StringEntity(authorizeResponse.get("body").toString()))
+                .thenReturn(new StringEntity(authorizeResponse.get("body").toString()))
+                .thenReturn(new StringEntity(searchResponse.get("body").toString()));
+
+        final ConfigDiff configDiff = plugin.transaction(TestHelpers.config()
+                .set("incremental", true)
+                .set("last_updated", "2019-01-01T00:00:00.000+0000"), new Control());
+        // User time zone 1 + Check credential 1 + loadData 1
+        verify(jiraClient, times(3)).getHttpClient(Mockito.any());
+        verify(pageBuilder, times(2)).addRecord();
+        assertEquals("2019-01-02T00:00:00.000+0000", configDiff.get(String.class, "last_updated"));
+    }
+
     @Test
     public void test_preview_withEmptyResult() throws IOException
     {
@@ -178,7 +300,7 @@ public class JiraInputPluginTest
 
         plugin.transaction(config, new Control());
         // Check credential 1 + loadData 1
-        verify(jiraClient, times(2)).createHttpClient();
+        verify(jiraClient, times(2)).getHttpClient(Mockito.any());
         verify(pageBuilder, times(0)).addRecord();
         verify(pageBuilder, times(1)).finish();
     }
@@ -199,7 +321,7 @@ public class JiraInputPluginTest
 
         plugin.transaction(config, new Control());
         // Check credential 1 + loadData 1
-        verify(jiraClient, times(2)).createHttpClient();
+        verify(jiraClient, times(2)).getHttpClient(Mockito.any());
         verify(pageBuilder, times(1)).addRecord();
         verify(pageBuilder, times(1)).finish();
     }
@@ -225,16 +347,94 @@ public class JiraInputPluginTest
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void test_guess_samplePages() throws IOException
+    {
+        final ConfigSource configSource = TestHelpers.config().set("guess_sample_pages", 3);
+
+        final JsonObject searchResponse = data.get("guessDataResult").getAsJsonObject();
+
+        when(statusLine.getStatusCode()).thenReturn(searchResponse.get("statusCode").getAsInt());
+        when(response.getEntity())
+                .thenReturn(new StringEntity(searchResponse.get("body").toString()))
+                .thenReturn(new StringEntity(searchResponse.get("body").toString()))
+                .thenReturn(new StringEntity(searchResponse.get("body").toString()));
+
+        final ConfigDiff result = plugin.guess(configSource);
+        final JsonElement expected = data.get("guessResult").getAsJsonObject();
+        final JsonElement actual = new JsonParser().parse(result.toString());
+        assertEquals(expected, actual);
+        // Check credential 1 + count 1 + the only page 1
+        verify(jiraClient, times(3)).getHttpClient(Mockito.any());
+    }
+
+    @Test
+    public void test_guess_samplePagesAcrossIdRanges() throws IOException
+    {
+        final ConfigSource configSource = TestHelpers.config().set("guess_sample_pages", 3);
+        final JsonObject authorizeResponse = data.get("authenticateSuccess").getAsJsonObject();
+        final JsonObject sampledRanges = data.get("sampledRangesResult").getAsJsonObject();
+        final JsonObject ranges = sampledRanges.get("ranges").getAsJsonObject();
+
+        // The ranges are requested concurrently, each request is answered from its JQL
+        final List<JsonObject> searches = Collections.synchronizedList(new ArrayList<>());
+        when(client.execute(Mockito.any(HttpUriRequest.class))).thenAnswer(invocation -> {
+            if (!(invocation.getArgument(0) instanceof HttpPost)) {
+                return createResponse(authorizeResponse.get("body"));
+            }
+            final JsonObject search = new JsonParser().parse(EntityUtils.toString(((HttpPost) invocation.getArgument(0)).getEntity())).getAsJsonObject();
+            searches.add(search);
+            final String jql = search.get("jql").getAsString();
+            if (jql.endsWith("ORDER BY id ASC")) {
+                return createResponse(sampledRanges.get("firstId"));
+            }
+            if (jql.endsWith("ORDER BY id DESC")) {
+                return createResponse(sampledRanges.get("lastId"));
+            }
+            return createResponse(ranges.has(jql) ? ranges.get(jql) : sampledRanges.get("total"));
+        });
+
+        final ConfigDiff result = plugin.guess(configSource);
+        final Set<String> columns = new HashSet<>();
+        for (final JsonElement column : new JsonParser().parse(result.toString()).getAsJsonObject().get("columns").getAsJsonArray()) {
+            columns.add(column.getAsJsonObject().get("name").getAsString());
+        }
+        // Each field is only set in the issues of one range
+        assertTrue(columns.containsAll(Arrays.asList("boolean", "long", "string")));
+        // Check credential 1 + count 1 + lowest and highest ids 2 + the 3 ranges
+        verify(jiraClient, times(7)).getHttpClient(Mockito.any());
+        final Set<String> rangeJqls = new HashSet<>();
+        for (final JsonObject search : searches) {
+            if (ranges.has(search.get("jql").getAsString())) {
+                rangeJqls.add(search.get("jql").getAsString());
+                assertEquals(0, search.get("startAt").getAsInt());
+                assertEquals(GUESS_RECORDS_COUNT, search.get("maxResults").getAsInt());
+            }
+        }
+        assertEquals(ranges.keySet(), rangeJqls);
+    }
+
+    private static CloseableHttpResponse createResponse(final JsonElement body) throws IOException
+    {
+        final CloseableHttpResponse response = Mockito.mock(CloseableHttpResponse.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+        when(statusLine.getStatusCode()).thenReturn(200);
+        when(response.getStatusLine()).thenReturn(statusLine);
+        when(response.getEntity()).thenReturn(new StringEntity(body.toString()));
+        return response;
+    }
+
     private class Control implements InputPlugin.Control
     {
+        private final List<TaskReport> taskReports = new ArrayList<>();
+
         @Override
         public List<TaskReport> run(final TaskSource taskSource, final Schema schema, final int taskCount)
         {
-            final List<TaskReport> reports = new ArrayList<>();
             for (int i = 0; i < taskCount; i++) {
-                reports.add(plugin.run(taskSource, schema, i, output));
+                taskReports.add(plugin.run(taskSource, schema, i, output));
             }
-            return reports;
+            return taskReports;
         }
     }
 }
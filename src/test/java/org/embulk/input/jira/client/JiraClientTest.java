@@ -23,7 +23,11 @@ import java.util.List;
 
 import static org.embulk.input.jira.JiraInputPlugin.CONFIG_MAPPER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -49,7 +53,7 @@ public class JiraClientTest
             task = CONFIG_MAPPER.map(TestHelpers.config(), PluginTask.class);
             data = TestHelpers.getJsonFromFile("jira_client.json");
         }
-        when(jiraClient.createHttpClient()).thenReturn(client);
+        doReturn(client).when(jiraClient).getHttpClient(Mockito.any());
         when(client.execute(Mockito.any())).thenReturn(response);
         when(response.getStatusLine()).thenReturn(statusLine);
     }
@@ -154,7 +158,7 @@ public class JiraClientTest
 
         // First try + 3 retry_limit
         int expectedInvocation = 3 + 1;
-        verify(jiraClient, times(expectedInvocation)).createHttpClient();
+        verify(jiraClient, times(expectedInvocation)).getHttpClient(Mockito.any());
         verify(statusLine, times(expectedInvocation)).getStatusCode();
     }
 
@@ -173,7 +177,7 @@ public class JiraClientTest
 
         // No retry
         int expectedInvocation = 1;
-        verify(jiraClient, times(expectedInvocation)).createHttpClient();
+        verify(jiraClient, times(expectedInvocation)).getHttpClient(Mockito.any());
         verify(statusLine, times(expectedInvocation)).getStatusCode();
     }
 
@@ -186,7 +190,7 @@ public class JiraClientTest
 
         // First try + 3 retry_limit
         int expectedInvocation = 3 + 1;
-        verify(jiraClient, times(expectedInvocation)).createHttpClient();
+        verify(jiraClient, times(expectedInvocation)).getHttpClient(Mockito.any());
         // getStatusCode is not triggered
         verify(statusLine, times(0)).getStatusCode();
     }
@@ -245,4 +249,60 @@ public class JiraClientTest
         issues = jiraClient.searchIssues(task, 0, 50);
         assertEquals(issues.size(), 2);
     }
+
+    @Test
+    public void test_searchByToken() throws IOException
+    {
+        String dataName =  "searchJqlSuccess";
+        JsonObject messageResponse = data.get(dataName).getAsJsonObject();
+
+        int statusCode = messageResponse.get("statusCode").getAsInt();
+        String body = messageResponse.get("body").toString();
+
+        when(statusLine.getStatusCode()).thenReturn(statusCode);
+        when(response.getEntity()).thenReturn(new StringEntity(body));
+
+        SearchResult result = jiraClient.searchByToken(task, "project = example", null, 50, code -> {});
+        assertEquals(1, result.getIssues().size());
+        assertEquals("token2", result.getNextPageToken());
+        assertFalse(result.isLast());
+        assertEquals(-1, result.getTotal());
+    }
+
+    @Test
+    public void test_getTotalCount_token() throws IOException
+    {
+        String dataName =  "approximateCountSuccess";
+        JsonObject messageResponse = data.get(dataName).getAsJsonObject();
+
+        int statusCode = messageResponse.get("statusCode").getAsInt();
+        String body = messageResponse.get("body").toString();
+
+        when(statusLine.getStatusCode()).thenReturn(statusCode);
+        when(response.getEntity()).thenReturn(new StringEntity(body));
+        task = CONFIG_MAPPER.map(TestHelpers.config().set("pagination_method", "token"), PluginTask.class);
+
+        assertEquals(120, jiraClient.getTotalCount(task));
+    }
+
+    @Test
+    public void test_searchIssues_tokenWithOffset()
+    {
+        task = CONFIG_MAPPER.map(TestHelpers.config().set("pagination_method", "token"), PluginTask.class);
+
+        assertThrows(IllegalArgumentException.class, () -> jiraClient.searchIssues(task, "project = example", 50, 50));
+        // Not sent to the offset search instead
+        verify(jiraClient, times(0)).getHttpClient(Mockito.any());
+    }
+
+    @Test
+    public void test_getHttpClient_closedWithClient()
+    {
+        try (JiraClient pooledClient = new JiraClient()) {
+            final CloseableHttpClient httpClient = pooledClient.getHttpClient(task);
+            assertSame(httpClient, pooledClient.getHttpClient(task));
+            pooledClient.close();
+            assertNotSame(httpClient, pooledClient.getHttpClient(task));
+        }
+    }
 }
@@ -0,0 +1,78 @@
+package org.embulk.input.jira.client;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.embulk.config.ConfigException;
+import org.embulk.input.jira.Issue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+public class PageFetcherTest
+{
+    @Test
+    public void test_next_keepOrder()
+    {
+        for (int prefetchPages = 0; prefetchPages <= 3; prefetchPages++) {
+            try (PageFetcher fetcher = new PageFetcher(createRequests(5).iterator(), prefetchPages)) {
+                for (int i = 0; i < 5; i++) {
+                    assertEquals(i, fetcher.next().get(0).getValue("id").getAsInt());
+                }
+                assertFalse(fetcher.hasNext());
+            }
+        }
+    }
+
+    @Test
+    public void test_next_concurrent()
+    {
+        for (final boolean preserveOrder : new boolean[] {true, false}) {
+            final Set<Integer> ids = new HashSet<>();
+            try (PageFetcher fetcher = new PageFetcher(createRequests(10).iterator(), 1, 4, preserveOrder)) {
+                for (int i = 0; i < 10; i++) {
+                    final int id = fetcher.next().get(0).getValue("id").getAsInt();
+                    if (preserveOrder) {
+                        assertEquals(i, id);
+                    }
+                    ids.add(id);
+                }
+                assertFalse(fetcher.hasNext());
+            }
+            assertEquals(10, ids.size());
+        }
+    }
+
+    @Test
+    public void test_next_throwRequestException()
+    {
+        final List<Callable<List<Issue>>> requests = createRequests(2);
+        requests.add(() -> {
+            throw new ConfigException("test exception");
+        });
+        try (PageFetcher fetcher = new PageFetcher(requests.iterator(), 2)) {
+            fetcher.next();
+            fetcher.next();
+            assertThrows("test exception", ConfigException.class, fetcher::next);
+        }
+    }
+
+    private List<Callable<List<Issue>>> createRequests(final int size)
+    {
+        final List<Callable<List<Issue>>> requests = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final JsonObject json = new JsonObject();
+            json.add("id", new JsonPrimitive(i));
+            requests.add(() -> Collections.singletonList(new Issue(json)));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,55 @@
+package org.embulk.input.jira.client;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class PageSizeTest
+{
+    @Test
+    public void test_fixed_respectJiraLimit()
+    {
+        PageSize pageSize = new PageSize(100, 1000, false);
+        pageSize.onResponse(100, result(100, 0), 10);
+        assertEquals(100, pageSize.get());
+        pageSize.onRetry(500);
+        assertEquals(100, pageSize.get());
+
+        pageSize.onResponse(100, result(50, 0), 10);
+        assertEquals(50, pageSize.get());
+    }
+
+    @Test
+    public void test_adaptive_growAndShrink()
+    {
+        PageSize pageSize = new PageSize(50, 300, true);
+        pageSize.onResponse(50, result(50, 1024), 100);
+        assertEquals(100, pageSize.get());
+        pageSize.onResponse(100, result(100, 1024), 100);
+        assertEquals(200, pageSize.get());
+        pageSize.onResponse(200, result(200, 1024), 100);
+        assertEquals(300, pageSize.get());
+
+        // Slow response
+        pageSize.onResponse(300, result(300, 1024), 60 * 1000);
+        assertEquals(150, pageSize.get());
+        // Time out
+        pageSize.onRetry(-1);
+        assertEquals(75, pageSize.get());
+        // Too many requests does not change the page size
+        pageSize.onRetry(429);
+        assertEquals(75, pageSize.get());
+
+        // JIRA caps maxResults
+        pageSize.onResponse(75, result(60, 1024), 100);
+        pageSize.onResponse(60, result(60, 1024), 100);
+        assertEquals(60, pageSize.get());
+    }
+
+    private SearchResult result(final int maxResults, final int responseSize)
+    {
+        return new SearchResult(Collections.emptyList(), 0, maxResults, responseSize);
+    }
+}
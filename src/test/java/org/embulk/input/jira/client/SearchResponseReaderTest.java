@@ -0,0 +1,94 @@
+package org.embulk.input.jira.client;
+
+import com.google.gson.JsonParseException;
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.IssuePath;
+import org.embulk.input.jira.IssuePathTrie;
+import org.embulk.util.json.JsonParser;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class SearchResponseReaderTest
+{
+    private static final String RESPONSE = "{\"startAt\":0,\"maxResults\":50,\"total\":1,\"issues\":["
+            + "{\"id\":\"10001\",\"key\":\"EX-1\",\"self\":\"self1\",\"fields\":{\"summary\":\"first\",\"updated\":\"2019-01-01T00:00:00.000+0000\","
+            + "\"labels\":[\"a\",\"b\"],\"status\":{\"name\":\"Open\"},\"estimate\":1.50,\"resolution\":null}}]}";
+
+    @Test
+    public void test_read() throws IOException
+    {
+        final SearchResult result = read(false, RESPONSE);
+        assertEquals(1, result.getTotal());
+        assertEquals(50, result.getMaxResults());
+        assertNull(result.getNextPageToken());
+        final Issue issue = result.getIssues().get(0);
+        assertEquals("EX-1", issue.getValue("key").getAsString());
+        assertEquals("first", issue.getValue("summary").getAsString());
+        assertEquals("Open", issue.getValue("status.name").getAsString());
+        assertNull(issue.getRaw());
+    }
+
+    @Test
+    public void test_read_projection() throws IOException
+    {
+        final String response = "{\"issues\":[{\"id\":\"10001\",\"key\":\"EX-1\",\"fields\":{\"summary\":\"first\",\"status\":{\"name\":\"Open\",\"id\":\"1\"},"
+                + "\"components\":[{\"name\":\"a\",\"id\":\"1\"},{\"name\":\"b\",\"id\":\"2\"}],\"labels\":[\"x\"],\"description\":\"long\"}}]}";
+        final List<String> paths = Arrays.asList("key", "status.name", "components.name", "labels", "summary");
+        final Issue whole = read(false, response).getIssues().get(0);
+        final SearchResponseReader reader = new SearchResponseReader(false, IssuePathTrie.compile(paths.stream().map(IssuePath::of).toArray(IssuePath[]::new)));
+        final Issue projected = reader.read(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, 100).getIssues().get(0);
+        for (final String path : paths) {
+            assertEquals(whole.getValue(path), projected.getValue(path));
+        }
+        // The values no column uses are skipped
+        assertTrue(projected.getValue("description").isJsonNull());
+        assertTrue(projected.getValue("status.id").isJsonNull());
+    }
+
+    @Test
+    public void test_read_raw() throws IOException
+    {
+        final SearchResult result = read(true, RESPONSE);
+        assertEquals(1, result.getIssues().size());
+        final Issue issue = result.getIssues().get(0);
+        assertEquals("10001", issue.getValue("id").getAsString());
+        assertEquals("EX-1", issue.getValue("key").getAsString());
+        assertEquals("2019-01-01T00:00:00.000+0000", issue.getValue("updated").getAsString());
+        // The fields are not merged, the issue is copied as it is
+        assertTrue(issue.getValue("summary").isJsonNull());
+        final String expected = "{\"id\":\"10001\",\"key\":\"EX-1\",\"self\":\"self1\",\"fields\":{\"summary\":\"first\",\"updated\":\"2019-01-01T00:00:00.000+0000\","
+                + "\"labels\":[\"a\",\"b\"],\"status\":{\"name\":\"Open\"},\"estimate\":1.50,\"resolution\":null}}";
+        // Typed as the JSON text parser does, i.e 1.50 is a float
+        assertEquals(new JsonParser().parse(expected), issue.getRaw());
+    }
+
+    @Test
+    public void test_read_token() throws IOException
+    {
+        final SearchResult result = read(false, "{\"issues\":[],\"nextPageToken\":\"next\",\"isLast\":false}");
+        assertEquals(-1, result.getTotal());
+        assertEquals(100, result.getMaxResults());
+        assertEquals("next", result.getNextPageToken());
+    }
+
+    @Test
+    public void test_read_invalidResponse()
+    {
+        assertThrows(JsonParseException.class, () -> read(false, "[]"));
+    }
+
+    private SearchResult read(final boolean raw, final String response) throws IOException
+    {
+        return new SearchResponseReader(raw).read(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), StandardCharsets.UTF_8, 100);
+    }
+}
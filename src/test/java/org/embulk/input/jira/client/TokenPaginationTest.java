@@ -0,0 +1,54 @@
+package org.embulk.input.jira.client;
+
+import com.google.gson.JsonObject;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.input.jira.TestHelpers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.embulk.input.jira.JiraInputPlugin.CONFIG_MAPPER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.when;
+
+public class TokenPaginationTest
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void test_followNextPageToken() throws Exception
+    {
+        final PluginTask task = CONFIG_MAPPER.map(TestHelpers.config().set("pagination_method", "token"), PluginTask.class);
+        final JiraClient jiraClient = Mockito.mock(JiraClient.class);
+        when(jiraClient.searchByToken(any(), anyString(), isNull(), anyInt(), any(), any()))
+                .thenReturn(result("token2", false));
+        when(jiraClient.searchByToken(any(), anyString(), eq("token2"), anyInt(), any(), any()))
+                .thenReturn(result(null, true));
+
+        final TokenPagination pagination = new TokenPagination(jiraClient, task, "project = example", new PageSize(50, 50, false), new SearchResponseReader(false));
+        assertTrue(pagination.hasNext());
+        assertEquals(1, pagination.next().call().size());
+        assertTrue(pagination.hasNext());
+        assertEquals(1, pagination.next().call().size());
+        assertFalse(pagination.hasNext());
+    }
+
+    private SearchResult result(final String nextPageToken, final boolean last)
+    {
+        final List<Issue> issues = Collections.singletonList(new Issue(new JsonObject()));
+        return new SearchResult(issues, -1, 50, 1024, nextPageToken, last);
+    }
+}
@@ -1,16 +1,22 @@
 package org.embulk.input.jira.util;
 
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.input.jira.Issue;
 import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.input.jira.Partition;
 import org.embulk.input.jira.TestHelpers;
+import org.embulk.input.jira.client.JiraClient;
 import org.embulk.spi.Column;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
 import org.embulk.util.json.JsonParser;
 import org.embulk.util.timestamp.TimestampFormatter;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -18,10 +24,20 @@ import org.msgpack.value.Value;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import static org.embulk.input.jira.JiraInputPlugin.CONFIG_MAPPER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -36,6 +52,7 @@ public class JiraUtilTest
     private static Column stringColumn;
     private static Column dateColumn;
     private static Column jsonColumn;
+    private static JiraClient jiraClient;
 
     @BeforeClass
     public static void setUp() throws IOException
@@ -49,6 +66,13 @@ public class JiraUtilTest
         stringColumn = schema.getColumn(3);
         dateColumn = schema.getColumn(4);
         jsonColumn = schema.getColumn(5);
+        jiraClient = new JiraClient();
+    }
+
+    @AfterClass
+    public static void tearDown()
+    {
+        jiraClient.close();
     }
 
     @Test
@@ -76,6 +100,132 @@ public class JiraUtilTest
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void test_createOffsetPartitions()
+    {
+        List<Partition> partitions = JiraUtil.createOffsetPartitions(0, 4, 50);
+        assertEquals(1, partitions.size());
+        assertEquals(0, partitions.get(0).getStartAt());
+        assertFalse(partitions.get(0).isBounded());
+
+        partitions = JiraUtil.createOffsetPartitions(51, 4, 50);
+        assertEquals(2, partitions.size());
+        assertEquals(0, partitions.get(0).getStartAt());
+        assertEquals(50, partitions.get(0).getEndAt());
+        assertEquals(50, partitions.get(1).getStartAt());
+        assertFalse(partitions.get(1).isBounded());
+
+        partitions = JiraUtil.createOffsetPartitions(400000, 8, 50);
+        assertEquals(8, partitions.size());
+        assertEquals(50000, partitions.get(1).getStartAt());
+        assertEquals(100000, partitions.get(1).getEndAt());
+        assertEquals(350000, partitions.get(7).getStartAt());
+        assertFalse(partitions.get(7).isBounded());
+    }
+
+    @Test
+    public void test_createOffsetPartitions_invalidPageSize()
+    {
+        assertThrows(IllegalArgumentException.class, () -> JiraUtil.createOffsetPartitions(100, 2, 0));
+        assertThrows(IllegalArgumentException.class, () -> JiraUtil.createOffsetPartitions(100, 0, 50));
+    }
+
+    @Test
+    public void test_createIdPartitions()
+    {
+        List<Partition> partitions = JiraUtil.createIdPartitions(100, 199, 4);
+        assertEquals(4, partitions.size());
+        assertEquals("id < 125", partitions.get(0).getFilter());
+        assertEquals("id >= 125 AND id < 150", partitions.get(1).getFilter());
+        assertEquals("id >= 150 AND id < 175", partitions.get(2).getFilter());
+        assertEquals("id >= 175", partitions.get(3).getFilter());
+
+        partitions = JiraUtil.createIdPartitions(100, 100, 4);
+        assertEquals(1, partitions.size());
+        assertNull(partitions.get(0).getFilter());
+    }
+
+    @Test
+    public void test_buildTimeWindowFilter()
+    {
+        Instant from = Instant.parse("2019-01-01T00:00:00Z");
+        Instant to = Instant.parse("2019-01-02T00:00:00Z");
+        assertEquals("updated >= \"2019/01/01 00:00\" AND updated < \"2019/01/02 00:00\"",
+                JiraUtil.buildTimeWindowFilter("updated", from, to, ZoneOffset.UTC));
+        assertEquals("created >= \"2019/01/01 09:00\"",
+                JiraUtil.buildTimeWindowFilter("created", from, null, ZoneId.of("Asia/Tokyo")));
+        assertEquals("updated < \"2019/01/02 00:00\"",
+                JiraUtil.buildTimeWindowFilter("updated", null, to, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void test_parseJiraTimestamp()
+    {
+        assertEquals(Instant.parse("2019-01-01T00:00:00Z"), JiraUtil.parseJiraTimestamp("2019-01-01T07:00:00.000+0700"));
+        assertNull(JiraUtil.parseJiraTimestamp("not a timestamp"));
+    }
+
+    @Test
+    public void test_getRequestedFields()
+    {
+        Schema schema = Schema.builder()
+                .add("id", Types.STRING)
+                .add("key", Types.STRING)
+                .add("status.name", Types.STRING)
+                .add("status.id", Types.STRING)
+                .add("customfield_10001", Types.JSON)
+                .build();
+        assertEquals(Arrays.asList("status", "customfield_10001", "updated"), JiraUtil.getRequestedFields(schema, Collections.singletonList("updated")));
+        assertEquals(Collections.singletonList("id"), JiraUtil.getRequestedFields(Schema.builder().add("key", Types.STRING).build(), Collections.emptyList()));
+    }
+
+    @Test
+    public void test_formatJiraTimestamp()
+    {
+        assertEquals("2019-01-01T00:00:00.000+0000", JiraUtil.formatJiraTimestamp(Instant.parse("2019-01-01T00:00:00Z")));
+    }
+
+    @Test
+    public void test_maxInstant()
+    {
+        final Instant current = Instant.parse("2019-01-01T00:00:00Z");
+        assertEquals(current, JiraUtil.maxInstant(current, JsonNull.INSTANCE));
+        assertEquals(current, JiraUtil.maxInstant(current, new JsonPrimitive("2018-12-31T00:00:00.000+0000")));
+        assertEquals(current, JiraUtil.maxInstant(current, new JsonPrimitive("not a timestamp")));
+        assertEquals(Instant.parse("2019-01-02T00:00:00Z"), JiraUtil.maxInstant(current, new JsonPrimitive("2019-01-02T00:00:00.000+0000")));
+        assertEquals(current, JiraUtil.maxInstant(null, new JsonPrimitive("2019-01-01T00:00:00.000+0000")));
+    }
+
+    @Test
+    public void test_appendJqlFilter()
+    {
+        assertEquals("project = example", JiraUtil.appendJqlFilter("project = example", null));
+        assertEquals("id < 10", JiraUtil.appendJqlFilter("", "id < 10"));
+        assertEquals("(project = example) AND id < 10", JiraUtil.appendJqlFilter("project = example", "id < 10"));
+        assertEquals("(project = example) AND id < 10 order by created DESC",
+                JiraUtil.appendJqlFilter("project = example order by created DESC", "id < 10"));
+        assertEquals("id < 10 ORDER BY created", JiraUtil.appendJqlFilter("ORDER BY created", "id < 10"));
+    }
+
+    @Test
+    public void test_orderJql()
+    {
+        assertEquals("ORDER BY id ASC", JiraUtil.orderJql("", "id ASC"));
+        assertEquals("project = example ORDER BY id ASC", JiraUtil.orderJql("project = example", "id ASC"));
+        assertEquals("project = example ORDER BY id ASC", JiraUtil.orderJql("project = example ORDER BY created", "id ASC"));
+    }
+
+    @Test
+    public void test_appendJqlFilter_orderByQuoted()
+    {
+        assertEquals("(summary ~ \"sort order by date\") AND id < 10",
+                JiraUtil.appendJqlFilter("summary ~ \"sort order by date\"", "id < 10"));
+        assertEquals("(summary ~ 'it\\'s order by date') AND id < 10 ORDER BY created",
+                JiraUtil.appendJqlFilter("summary ~ 'it\\'s order by date' ORDER BY created", "id < 10"));
+        assertEquals("summary ~ \"order by \\\" order by\" ORDER BY id ASC",
+                JiraUtil.orderJql("summary ~ \"order by \\\" order by\"", "id ASC"));
+    }
+
     @Test
     public void test_buildPermissionUrl()
     {
@@ -114,7 +264,7 @@ public class JiraUtilTest
     {
         ConfigSource configSource = TestHelpers.config();
         PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-        JiraUtil.validateTaskConfig(task);
+        JiraUtil.validateTaskConfig(task, jiraClient);
     }
 
     @Test
@@ -124,7 +274,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("username", "");
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("Username or email could not be empty", exception.getMessage());
     }
@@ -136,7 +286,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("password", "");
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("Password could not be empty", exception.getMessage());
     }
@@ -148,7 +298,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("uri", "");
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("JIRA API endpoint could not be empty", exception.getMessage());
     }
@@ -160,7 +310,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("uri", "https://not-existed-domain");
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("JIRA API endpoint is incorrect or not available", exception.getMessage());
     }
@@ -172,7 +322,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("uri", "ftp://example.com");
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("JIRA API endpoint is incorrect or not available", exception.getMessage());
     }
@@ -184,7 +334,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("uri", "https://example .com");
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("JIRA API endpoint is incorrect or not available", exception.getMessage());
     }
@@ -195,7 +345,7 @@ public class JiraUtilTest
         ConfigSource configSource = TestHelpers.config();
         configSource.set("jql", "");
         PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-        JiraUtil.validateTaskConfig(task);
+        JiraUtil.validateTaskConfig(task, jiraClient);
     }
 
     @Test
@@ -204,7 +354,7 @@ public class JiraUtilTest
         ConfigSource configSource = TestHelpers.config();
         configSource.remove("jql");
         PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-        JiraUtil.validateTaskConfig(task);
+        JiraUtil.validateTaskConfig(task, jiraClient);
     }
 
     @Test
@@ -214,7 +364,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("initial_retry_interval_millis", 0);
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("Initial retry delay should be equal or greater than 1", exception.getMessage());
     }
@@ -226,11 +376,23 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("initial_retry_interval_millis", -1);
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("Initial retry delay should be equal or greater than 1", exception.getMessage());
     }
 
+    @Test
+    public void test_validateTaskConfig_maxConnectionsIs0() throws IOException
+    {
+        ConfigException exception = assertThrows(ConfigException.class, () -> {
+            ConfigSource configSource = TestHelpers.config();
+            configSource.set("max_connections", 0);
+            PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
+            JiraUtil.validateTaskConfig(task, jiraClient);
+        });
+        assertEquals("Max connections should be equal or greater than 1", exception.getMessage());
+    }
+
     @Test
     public void test_validateTaskConfig_RetryLimitGreaterThan10() throws IOException
     {
@@ -238,7 +400,7 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("retry_limit", 11);
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("Retry limit should between 0 and 10", exception.getMessage());
     }
@@ -250,11 +412,35 @@ public class JiraUtilTest
             ConfigSource configSource = TestHelpers.config();
             configSource.set("retry_limit", -1);
             PluginTask task = CONFIG_MAPPER.map(configSource, PluginTask.class);
-            JiraUtil.validateTaskConfig(task);
+            JiraUtil.validateTaskConfig(task, jiraClient);
         });
         assertEquals("Retry limit should between 0 and 10", exception.getMessage());
     }
 
+    @Test
+    public void test_selectSamplePages()
+    {
+        Random random = new Random(1);
+        assertEquals(Collections.emptyList(), JiraUtil.selectSamplePages(0, 5, random));
+        assertEquals(Collections.emptyList(), JiraUtil.selectSamplePages(10, 0, random));
+        assertEquals(Arrays.asList(0, 1, 2), JiraUtil.selectSamplePages(3, 5, random));
+
+        int[] counts = new int[20];
+        for (int i = 0; i < 10000; i++) {
+            List<Integer> pages = JiraUtil.selectSamplePages(20, 5, random);
+            assertEquals(5, pages.size());
+            assertEquals(0, pages.get(0).intValue());
+            for (int j = 1; j < pages.size(); j++) {
+                assertTrue(pages.get(j) > pages.get(j - 1));
+                counts[pages.get(j)]++;
+            }
+        }
+        // The other pages are drawn uniformly, 4 out of 19 pages each time
+        for (int page = 1; page < counts.length; page++) {
+            assertEquals(10000 * 4 / 19.0, counts[page], 200);
+        }
+    }
+
     @Test
     public void test_addRecord_allRight()
     {
@@ -272,7 +458,7 @@ public class JiraUtilTest
                 .build().parse("2019-01-01T00:00:00.000Z");
         Value jsonValue = new JsonParser().parse("{}");
 
-        JiraUtil.addRecord(issue, schema, pluginTask, mock);
+        RecordWriter.compile(pluginTask, schema, new CoercionFailures(schema)).addRecord(issue, mock);
 
         verify(mock, times(1)).setBoolean(booleanColumn, boolValue);
         verify(mock, times(1)).setLong(longColumn, longValue);
@@ -292,7 +478,7 @@ public class JiraUtilTest
         String stringValue = "{}";
         Value jsonValue = new JsonParser().parse("{}");
 
-        JiraUtil.addRecord(issue, schema, pluginTask, mock);
+        RecordWriter.compile(pluginTask, schema, new CoercionFailures(schema)).addRecord(issue, mock);
 
         verify(mock, times(1)).setNull(booleanColumn);
         verify(mock, times(1)).setNull(longColumn);
@@ -309,7 +495,7 @@ public class JiraUtilTest
         Issue issue = new Issue(data.get(testName).getAsJsonObject());
         PageBuilder mock = Mockito.mock(PageBuilder.class);
 
-        JiraUtil.addRecord(issue, schema, pluginTask, mock);
+        RecordWriter.compile(pluginTask, schema, new CoercionFailures(schema)).addRecord(issue, mock);
 
         verify(mock, times(6)).setNull(Mockito.any(Column.class));
     }
@@ -323,8 +509,69 @@ public class JiraUtilTest
 
         String stringValue = "1,{},[]";
 
-        JiraUtil.addRecord(issue, schema, pluginTask, mock);
+        RecordWriter.compile(pluginTask, schema, new CoercionFailures(schema)).addRecord(issue, mock);
 
         verify(mock, times(1)).setString(stringColumn, stringValue);
     }
+
+    @Test
+    public void test_addRecord_coerced()
+    {
+        Issue issue = new Issue(data.get("allCoerced").getAsJsonObject());
+        PageBuilder mock = Mockito.mock(PageBuilder.class);
+        CoercionFailures failures = new CoercionFailures(schema);
+
+        RecordWriter.compile(pluginTask, schema, failures).addRecord(issue, mock);
+
+        verify(mock, times(1)).setBoolean(booleanColumn, true);
+        verify(mock, times(1)).setLong(longColumn, -42L);
+        verify(mock, times(1)).setDouble(doubleColumn, 150.0);
+        verify(mock, times(1)).setString(stringColumn, "1");
+        verify(mock, times(1)).setTimestamp(dateColumn, Instant.parse("2019-01-01T00:00:00Z"));
+        verify(mock, times(1)).setJson(jsonColumn, new JsonParser().parse("[]"));
+        assertTrue(failures.toMap().isEmpty());
+    }
+
+    @Test
+    public void test_addRecord_numberShapes()
+    {
+        Issue issue = new Issue(data.get("numberShapes").getAsJsonObject());
+        PageBuilder mock = Mockito.mock(PageBuilder.class);
+        CoercionFailures failures = new CoercionFailures(schema);
+
+        RecordWriter.compile(pluginTask, schema, failures).addRecord(issue, mock);
+
+        // The arrays of one value are coerced as their value and the fractions are truncated, as Gson does
+        verify(mock, times(1)).setBoolean(booleanColumn, false);
+        verify(mock, times(1)).setLong(longColumn, 2L);
+        verify(mock, times(1)).setDouble(doubleColumn, 3.0);
+        assertTrue(failures.toMap().isEmpty());
+    }
+
+    @Test
+    public void test_addRecord_coercionFailures()
+    {
+        Issue issue = new Issue(data.get("mixedTypes").getAsJsonObject());
+        PageBuilder mock = Mockito.mock(PageBuilder.class);
+        CoercionFailures failures = new CoercionFailures(schema);
+        RecordWriter recordWriter = RecordWriter.compile(pluginTask, schema, failures);
+
+        recordWriter.addRecord(issue, mock);
+        recordWriter.addRecord(issue, mock);
+
+        verify(mock, times(2)).setNull(booleanColumn);
+        verify(mock, times(2)).setNull(longColumn);
+        verify(mock, times(2)).setNull(doubleColumn);
+        verify(mock, times(2)).setNull(stringColumn);
+        verify(mock, times(2)).setNull(dateColumn);
+        verify(mock, times(2)).setNull(jsonColumn);
+        assertEquals(2, failures.get(booleanColumn));
+        assertEquals(2, failures.get(longColumn));
+        assertEquals(2, failures.get(doubleColumn));
+        assertEquals(2, failures.get(dateColumn));
+        // The null values are not failures, neither are the primitives of the json columns
+        assertEquals(0, failures.get(stringColumn));
+        assertEquals(0, failures.get(jsonColumn));
+        assertEquals(Arrays.asList("boolean", "long", "double", "date"), new ArrayList<>(failures.toMap().keySet()));
+    }
 }
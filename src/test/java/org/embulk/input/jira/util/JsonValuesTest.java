@@ -0,0 +1,50 @@
+package org.embulk.input.jira.util;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.stream.JsonReader;
+import org.embulk.util.json.JsonParser;
+import org.junit.Test;
+import org.msgpack.value.ValueFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonValuesTest
+{
+    private static final JsonParser JSON_PARSER = new JsonParser();
+    private static final String[] TEXTS = {
+            "{\"components\":[{\"id\":\"10000\",\"name\":\"API\"},{\"id\":\"10001\",\"name\":\"UI\"}]}",
+            "[1,-2,3.5,1.0e3,9223372036854775807,-9223372036854775808,92233720368547758070]",
+            "{\"a\":true,\"b\":false,\"c\":null,\"d\":\"text \\\"quoted\\\" \\u00e9\",\"e\":{},\"f\":[]}",
+            "[[[\"nested\"]],{\"x\":{\"y\":{\"z\":0}}}]"
+    };
+
+    @Test
+    public void test_toValue_sameAsParsedText()
+    {
+        for (final String text : TEXTS) {
+            final JsonElement element = new com.google.gson.JsonParser().parse(text);
+            assertEquals(text, JSON_PARSER.parse(element.toString()), JsonValues.toValue(element));
+        }
+    }
+
+    @Test
+    public void test_read_sameAsParsedText() throws IOException
+    {
+        for (final String text : TEXTS) {
+            try (JsonReader reader = new JsonReader(new StringReader(text))) {
+                assertEquals(text, JSON_PARSER.parse(text), JsonValues.read(reader));
+            }
+        }
+    }
+
+    @Test
+    public void test_toValue_null()
+    {
+        assertEquals(ValueFactory.newNil(), JsonValues.toValue(JsonNull.INSTANCE));
+        assertEquals(ValueFactory.newNil(), JsonValues.toValue(null));
+    }
+}
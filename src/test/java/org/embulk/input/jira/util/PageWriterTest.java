@@ -0,0 +1,89 @@
+package org.embulk.input.jira.util;
+
+import com.google.gson.JsonObject;
+import org.embulk.input.jira.Issue;
+import org.embulk.input.jira.IssuePath;
+import org.embulk.input.jira.IssuePathTrie;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PageWriterTest
+{
+    private static final Schema SCHEMA = Schema.builder()
+            .add("id", Types.LONG)
+            .add("key", Types.STRING)
+            .build();
+
+    @Test
+    public void test_write_keepOrder()
+    {
+        final List<Issue> issues = createIssues(101);
+        for (int conversionThreads = 1; conversionThreads <= 4; conversionThreads++) {
+            final PageBuilder pageBuilder = Mockito.mock(PageBuilder.class);
+            try (PageWriter pageWriter = new PageWriter(createRecordWriter(new CoercionFailures(SCHEMA)), conversionThreads)) {
+                pageWriter.write(issues, pageBuilder);
+                pageWriter.write(issues.subList(0, 1), pageBuilder);
+            }
+            final InOrder inOrder = Mockito.inOrder(pageBuilder);
+            for (int i = 0; i < issues.size(); i++) {
+                inOrder.verify(pageBuilder).setLong(SCHEMA.getColumn(0), i);
+                inOrder.verify(pageBuilder).setString(SCHEMA.getColumn(1), "EX-" + i);
+                inOrder.verify(pageBuilder).addRecord();
+            }
+            verify(pageBuilder, times(issues.size() + 1)).addRecord();
+        }
+    }
+
+    @Test
+    public void test_write_coercionFailures()
+    {
+        final List<Issue> issues = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            final JsonObject json = new JsonObject();
+            if (i % 3 == 0) {
+                json.addProperty("id", "not a number");
+            }
+            else {
+                json.addProperty("id", i);
+            }
+            issues.add(new Issue(json));
+        }
+        final PageBuilder pageBuilder = Mockito.mock(PageBuilder.class);
+        final CoercionFailures failures = new CoercionFailures(SCHEMA);
+        try (PageWriter pageWriter = new PageWriter(createRecordWriter(failures), 4)) {
+            pageWriter.write(issues, pageBuilder);
+        }
+        verify(pageBuilder, times(10)).setNull(SCHEMA.getColumn(0));
+        verify(pageBuilder, times(30)).setNull(SCHEMA.getColumn(1));
+        assertEquals(10, failures.get(SCHEMA.getColumn(0)));
+        assertEquals(0, failures.get(SCHEMA.getColumn(1)));
+    }
+
+    private static RecordWriter createRecordWriter(final CoercionFailures failures)
+    {
+        return new RecordWriter(SCHEMA, IssuePathTrie.compile(IssuePath.compile(SCHEMA)), new TimestampParser[SCHEMA.getColumnCount()], failures);
+    }
+
+    private static List<Issue> createIssues(final int count)
+    {
+        final List<Issue> issues = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final JsonObject json = new JsonObject();
+            json.addProperty("id", i);
+            json.addProperty("key", "EX-" + i);
+            issues.add(new Issue(json));
+        }
+        return issues;
+    }
+}
@@ -0,0 +1,73 @@
+package org.embulk.input.jira.util;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.input.jira.JiraInputPlugin.PluginTask;
+import org.embulk.input.jira.TestHelpers;
+import org.embulk.spi.Schema;
+import org.embulk.util.timestamp.TimestampFormatter;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.embulk.input.jira.Constant.DEFAULT_TIMESTAMP_PATTERN;
+import static org.embulk.input.jira.JiraInputPlugin.CONFIG_MAPPER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TimestampParserTest
+{
+    @Rule
+    public EmbulkTestRuntime runtime = new EmbulkTestRuntime();
+
+    @Test
+    public void test_parse_jiraFormat()
+    {
+        final TimestampParser parser = TimestampParser.of(DEFAULT_TIMESTAMP_PATTERN);
+        final TimestampFormatter formatter = TimestampFormatter.builder(DEFAULT_TIMESTAMP_PATTERN, true).setDefaultZoneFromString("UTC").build();
+        for (final String value : new String[] {
+                "2019-01-01T00:00:00.000+0000",
+                "2019-01-01T09:30:15.123+0930",
+                "2018-12-31T23:59:59.999-0500",
+                "2020-02-29T12:00:00.001+1400"}) {
+            assertEquals(formatter.parse(value), parser.parse(value));
+        }
+        assertEquals(Instant.parse("2019-01-01T00:00:00Z"), parser.parse("2019-01-01T07:00:00.000+0700"));
+    }
+
+    @Test
+    public void test_parse_otherShapes()
+    {
+        final TimestampParser parser = TimestampParser.of(DEFAULT_TIMESTAMP_PATTERN);
+        // Not the exact JIRA shape, left to the generic formatter
+        assertEquals(Instant.parse("2019-01-01T00:00:00Z"), parser.parse("2019-01-01T00:00:00.000Z"));
+        assertNull(parser.parse("2019-02-30T00:00:00.000+0000"));
+        assertNull(parser.parse("2019-01-01T25:00:00.000+0000"));
+        assertNull(parser.parse("not a timestamp"));
+    }
+
+    @Test
+    public void test_parse_customFormat()
+    {
+        final TimestampParser parser = TimestampParser.of("%Y-%m-%d");
+        assertEquals(Instant.parse("2019-01-02T00:00:00Z"), parser.parse("2019-01-02"));
+        assertNull(parser.parse("2019-01-02T00:00:00.000+0000"));
+    }
+
+    @Test
+    public void test_compile()
+    {
+        final PluginTask task = CONFIG_MAPPER.map(TestHelpers.config(), PluginTask.class);
+        final Schema schema = task.getColumns().toSchema();
+        final TimestampParser[] parsers = TimestampParser.compile(task, schema);
+        for (int i = 0; i < schema.getColumnCount(); i++) {
+            if (schema.getColumnName(i).equals("date")) {
+                assertNotNull(parsers[i]);
+            }
+            else {
+                assertNull(parsers[i]);
+            }
+        }
+    }
+}